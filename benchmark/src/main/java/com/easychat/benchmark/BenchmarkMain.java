@@ -6,6 +6,7 @@ package com.easychat.benchmark;
  * 用法:
  *   java -jar benchmark.jar concurrent  --ws-url ws://localhost:5051/ws --tokens-file tokens.txt --connections 5000
  *   java -jar benchmark.jar latency     --ws-url ws://localhost:5051/ws --redis-url redis://localhost:6379 --tokens-file tokens.txt --messages 1000
+ *   java -jar benchmark.jar codec
  *   java -jar benchmark.jar gen-tokens  --api-url http://localhost:5050 --count 5000 --output tokens.txt
  */
 public class BenchmarkMain {
@@ -24,6 +25,9 @@ public class BenchmarkMain {
             case "latency":
                 LatencyBenchmark.run(args);
                 break;
+            case "codec":
+                CodecBenchmark.run(args);
+                break;
             case "gen-tokens":
                 TokenGenerator.run(args);
                 break;
@@ -41,6 +45,7 @@ public class BenchmarkMain {
         System.out.println("模式:");
         System.out.println("  concurrent   并发WebSocket长连接压测");
         System.out.println("  latency      端到端消息延迟测试");
+        System.out.println("  codec        节点间消息编码对比(JMH)");
         System.out.println("  gen-tokens   批量生成测试用户Token(直接写入Redis, 绕过登录)");
         System.out.println();
         System.out.println("concurrent 选项:");
@@ -50,6 +55,10 @@ public class BenchmarkMain {
         System.out.println("  --ramp-up <n>           每秒建立连接数 (默认 200)");
         System.out.println("  --hold-seconds <n>      全部连接建立后保持时间秒 (默认 60)");
         System.out.println("  --heartbeat-interval <n> 心跳间隔秒 (默认 30)");
+        System.out.println("  --fanout-messages <n>    连接建立后向测试群发布的消息数 (默认 0, 不测群发)");
+        System.out.println("  --fanout-group <id>      群发测试的群ID (默认 G_BENCH_0000)");
+        System.out.println("  --fanout-interval-ms <n> 群消息发布间隔ms (默认 500)");
+        System.out.println("  --redis-url <url>       群发测试使用的Redis地址 (默认 redis://localhost:6379)");
         System.out.println();
         System.out.println("latency 选项:");
         System.out.println("  --ws-url <url>          WebSocket地址 (默认 ws://localhost:5051/ws)");
@@ -57,6 +66,12 @@ public class BenchmarkMain {
         System.out.println("  --tokens-file <file>    Token文件路径 (至少需要2个token)");
         System.out.println("  --messages <n>           发送消息数 (默认 1000)");
         System.out.println("  --interval-ms <n>        消息发送间隔ms (默认 100)");
+        System.out.println("  --burst <n>              突发模式，每轮连续发布n条 (默认 0 关闭)");
+        System.out.println("  --burst-interval-ms <n>  突发模式每轮间隔ms (默认 1000)");
+        System.out.println("  --batch <true|false>     连接时请求服务端批量帧 (默认 false)");
+        System.out.println();
+        System.out.println("codec 选项:");
+        System.out.println("  --forks <n>             JMH fork次数 (默认 1)");
         System.out.println();
         System.out.println("gen-tokens 选项:");
         System.out.println("  --redis-url <url>       Redis地址 (默认 redis://localhost:6379)");
@@ -65,5 +80,6 @@ public class BenchmarkMain {
         System.out.println("  --db-password <pwd>     MySQL密码 (默认 111111)");
         System.out.println("  --count <n>             生成Token数量 (默认 5000)");
         System.out.println("  --output <file>         输出文件路径 (默认 tokens.txt)");
+        System.out.println("  --groups <n>            每个测试用户加入的群数量 (默认 0)");
     }
 }
@@ -0,0 +1,184 @@
+package com.easychat.benchmark;
+
+import com.alibaba.fastjson2.JSONB;
+import com.alibaba.fastjson2.JSONReader;
+import com.alibaba.fastjson2.JSONWriter;
+import com.alibaba.fastjson2.filter.Filter;
+import com.easychat.entity.dto.MessageSendDto;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.redisson.client.codec.BaseCodec;
+import org.redisson.client.codec.Codec;
+import org.redisson.client.protocol.Decoder;
+import org.redisson.client.protocol.Encoder;
+import org.redisson.codec.Kryo5Codec;
+import org.redisson.codec.MarshallingCodec;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 节点间消息编码对比 (JMH)
+ *
+ * 对比 redisson 内置编码(MarshallingCodec / Kryo5Codec) 和服务端 ws.bus.codec=jsonb 使用的 fastjson2 JSONB，
+ * 输出每种编码的消息字节数和编码/解码耗时(ns/op)
+ *
+ * 消息类型:
+ *   chat    普通聊天消息，extendData为空
+ *   extend  extendData为会话信息(和ChatSessionUser字段一致，这里用Map代替)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"marshalling", "kryo5", "jsonb"})
+    public String codecName;
+
+    @Param({"chat", "extend"})
+    public String payload;
+
+    private Codec codec;
+
+    private MessageSendDto<Object> message;
+
+    private ByteBuf encoded;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        codec = createCodec(codecName);
+        message = createMessage(payload);
+        encoded = codec.getValueEncoder().encode(message);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        encoded.release();
+    }
+
+    @Benchmark
+    public int encode() throws Exception {
+        ByteBuf buf = codec.getValueEncoder().encode(message);
+        int size = buf.readableBytes();
+        buf.release();
+        return size;
+    }
+
+    @Benchmark
+    public Object decode() throws Exception {
+        return codec.getValueDecoder().decode(encoded.duplicate(), null);
+    }
+
+    public static void run(String[] args) throws Exception {
+        ArgParser p = new ArgParser(args);
+
+        System.out.println("============ 编码后消息大小 ============");
+        for (String payload : new String[]{"chat", "extend"}) {
+            for (String codecName : new String[]{"marshalling", "kryo5", "jsonb"}) {
+                ByteBuf buf = createCodec(codecName).getValueEncoder().encode(createMessage(payload));
+                System.out.printf("  %-8s %-12s %5d 字节%n", payload, codecName, buf.readableBytes());
+                buf.release();
+            }
+        }
+        System.out.println("========================================");
+        System.out.println();
+
+        Options options = new OptionsBuilder()
+                .include(CodecBenchmark.class.getName())
+                .forks(p.getInt("forks", 1))
+                .build();
+        new Runner(options).run();
+    }
+
+    private static Codec createCodec(String codecName) {
+        switch (codecName) {
+            case "marshalling":
+                return new MarshallingCodec();
+            case "kryo5":
+                return new Kryo5Codec();
+            case "jsonb":
+                return new JsonbCodec();
+            default:
+                throw new IllegalArgumentException("未知的编码:" + codecName);
+        }
+    }
+
+    private static MessageSendDto<Object> createMessage(String payload) {
+        long now = System.currentTimeMillis();
+        MessageSendDto<Object> dto = new MessageSendDto<>();
+        dto.setMessageId(1893465029104L);
+        dto.setSessionId("3f2b9c1e8a7d4b6c5e0f1a2b3c4d5e6f");
+        dto.setSendUserId("U_BENCH_0001");
+        dto.setSendUserNickName("压测用户0001");
+        dto.setContactId("U_BENCH_0000");
+        dto.setMessageContent("晚上一起吃饭吗？七点老地方见");
+        dto.setMessageType(2);
+        dto.setSendTime(now);
+        dto.setContactType(0);
+        dto.setStatus(1);
+        if ("extend".equals(payload)) {
+            Map<String, Object> session = new LinkedHashMap<>();
+            session.put("userId", "U_BENCH_0000");
+            session.put("contactId", "G_BENCH_0000");
+            session.put("sessionId", "3f2b9c1e8a7d4b6c5e0f1a2b3c4d5e6f");
+            session.put("contactName", "压测群0000");
+            session.put("lastMessage", "压测用户0001加入了群组");
+            session.put("lastReceiveTime", now);
+            session.put("contactType", 1);
+            session.put("memberCount", 128);
+            dto.setContactId("G_BENCH_0000");
+            dto.setMessageType(9);
+            dto.setMemberCount(128);
+            dto.setExtendData(session);
+        }
+        return dto;
+    }
+
+    /**
+     * 与服务端 com.easychat.redis.MessageJsonbCodec 相同的编码参数
+     */
+    static class JsonbCodec extends BaseCodec {
+
+        private static final Filter AUTO_TYPE_FILTER = JSONReader.autoTypeFilter("com.easychat.entity.");
+
+        private static final JSONWriter.Feature[] WRITE_FEATURES = {JSONWriter.Feature.WriteClassName, JSONWriter.Feature.FieldBased};
+
+        private final Encoder encoder = in -> Unpooled.wrappedBuffer(JSONB.toBytes(in, WRITE_FEATURES));
+
+        private final Decoder<Object> decoder = (buf, state) -> {
+            byte[] bytes = new byte[buf.readableBytes()];
+            buf.readBytes(bytes);
+            return JSONB.parseObject(bytes, Object.class, AUTO_TYPE_FILTER, JSONReader.Feature.FieldBased);
+        };
+
+        @Override
+        public Decoder<Object> getValueDecoder() {
+            return decoder;
+        }
+
+        @Override
+        public Encoder getValueEncoder() {
+            return encoder;
+        }
+    }
+}
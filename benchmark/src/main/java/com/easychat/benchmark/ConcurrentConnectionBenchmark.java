@@ -1,5 +1,8 @@
 package com.easychat.benchmark;
 
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import com.easychat.entity.dto.MessageSendDto;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
@@ -9,6 +12,11 @@ import io.netty.handler.codec.http.DefaultHttpHeaders;
 import io.netty.handler.codec.http.HttpClientCodec;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.websocketx.*;
+import org.HdrHistogram.Histogram;
+import org.redisson.Redisson;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.config.Config;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
@@ -20,6 +28,7 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 并发WebSocket长连接压测
@@ -32,12 +41,25 @@ import java.util.concurrent.atomic.AtomicInteger;
  * 3. 每个连接定期发送心跳保持活跃
  * 4. 统计成功连接数、失败数、连接耗时
  * 5. 保持连接一段时间后统计存活率
+ * 6. 可选: 通过RTopic向测试群发布消息，统计群发到每个连接的延迟
+ *
+ * 对比服务端 ws.group.fanout-mode=eager/lazy 时，先用 gen-tokens --groups N 让测试用户加入N个群，
+ * 分别观察连接速率(连接到收到INIT的耗时)和群发延迟
  */
 public class ConcurrentConnectionBenchmark {
 
     static final AtomicInteger connectedCount = new AtomicInteger(0);
     static final AtomicInteger failedCount = new AtomicInteger(0);
     static final AtomicInteger disconnectedCount = new AtomicInteger(0);
+    static final AtomicLong fanoutReceivedCount = new AtomicLong(0);
+
+    // 建立连接到收到INIT消息的耗时(服务端addContext完成)
+    static final Histogram initHistogram = new Histogram(TimeUnit.SECONDS.toNanos(60), 3);
+    // 群消息发布到每个连接收到的耗时
+    static final Histogram fanoutHistogram = new Histogram(TimeUnit.SECONDS.toNanos(60), 3);
+
+    private static final String MESSAGE_TOPIC = "message.topic";
+    private static final String NANO_PREFIX = "BENCH_NANO:";
 
     public static void run(String[] args) throws Exception {
         ArgParser p = new ArgParser(args);
@@ -47,6 +69,10 @@ public class ConcurrentConnectionBenchmark {
         int rampUp = p.getInt("ramp-up", 200);
         int holdSeconds = p.getInt("hold-seconds", 60);
         int heartbeatInterval = p.getInt("heartbeat-interval", 30);
+        String redisUrl = p.get("redis-url", "redis://localhost:6379");
+        String fanoutGroup = p.get("fanout-group", "G_BENCH_0000");
+        int fanoutMessages = p.getInt("fanout-messages", 0);
+        long fanoutIntervalMs = p.getLong("fanout-interval-ms", 500);
 
         // 读取tokens
         List<String> tokens = new ArrayList<>();
@@ -72,6 +98,9 @@ public class ConcurrentConnectionBenchmark {
         System.out.printf("  保持时间:      %d 秒%n", holdSeconds);
         System.out.printf("  心跳间隔:      %d 秒%n", heartbeatInterval);
         System.out.printf("  WebSocket URL: %s%n", wsUrl);
+        if (fanoutMessages > 0) {
+            System.out.printf("  群发测试:      群 %s, %d 条, 间隔 %d ms%n", fanoutGroup, fanoutMessages, fanoutIntervalMs);
+        }
         System.out.println("========================================");
 
         URI uri = new URI(wsUrl);
@@ -114,8 +143,10 @@ public class ConcurrentConnectionBenchmark {
                     String token = tokens.get(j);
                     String fullUrl = wsUrl + "?token=" + token;
 
+                    // INIT消息可能较大，放宽单帧长度限制
                     WebSocketClientHandshaker handshaker = WebSocketClientHandshakerFactory.newHandshaker(
-                        new URI(fullUrl), WebSocketVersion.V13, null, true, new DefaultHttpHeaders());
+                        new URI(fullUrl), WebSocketVersion.V13, null, true, new DefaultHttpHeaders(), 16 * 1024 * 1024);
+                    long connectStartNanos = System.nanoTime();
 
                     final int connIdx = j;
                     bootstrap.handler(new ChannelInitializer<SocketChannel>() {
@@ -125,7 +156,7 @@ public class ConcurrentConnectionBenchmark {
                                 new HttpClientCodec(),
                                 new HttpObjectAggregator(65536),
                                 new BenchmarkWebSocketHandler(handshaker, connIdx, batchLatch,
-                                    heartbeatScheduler, heartbeatInterval)
+                                    heartbeatScheduler, heartbeatInterval, connectStartNanos)
                             );
                         }
                     });
@@ -160,7 +191,15 @@ public class ConcurrentConnectionBenchmark {
             System.out.printf("  失败连接:    %d%n", failedCount.get());
             System.out.printf("  成功率:      %.1f%%%n",
                 connectedCount.get() * 100.0 / targetConnections);
+            System.out.printf("  连接速率:    %.0f 连接/秒%n", connectedCount.get() * 1000.0 / connectTime);
+            // 等待最后一批INIT到达
+            Thread.sleep(2000);
+            printHistogram("  连接到收到INIT耗时:", initHistogram);
             System.out.println("======================================");
+
+            if (fanoutMessages > 0) {
+                runFanout(redisUrl, fanoutGroup, fanoutMessages, fanoutIntervalMs);
+            }
             System.out.printf("%n保持连接 %d 秒，监测连接存活率...%n%n", holdSeconds);
 
             // 保持连接阶段
@@ -202,6 +241,65 @@ public class ConcurrentConnectionBenchmark {
         }
     }
 
+    /**
+     * 通过RTopic发布群聊消息，服务端按 eager/lazy 模式群发给本机在线成员
+     */
+    private static void runFanout(String redisUrl, String groupId, int messages, long intervalMs) throws Exception {
+        Config config = new Config();
+        config.useSingleServer().setAddress(redisUrl);
+        RedissonClient redisson = Redisson.create(config);
+        try {
+            RTopic topic = redisson.getTopic(MESSAGE_TOPIC);
+            System.out.printf("%n开始群发测试，共 %d 条...%n", messages);
+            for (int i = 0; i < messages; i++) {
+                MessageSendDto<String> dto = new MessageSendDto<>();
+                dto.setMessageId((long) i + 1);
+                dto.setContactId(groupId);
+                dto.setSendUserId("U_BENCH_SENDER");
+                dto.setSendUserNickName("sender");
+                dto.setMessageContent(NANO_PREFIX + System.nanoTime());
+                dto.setMessageType(2);
+                dto.setSendTime(System.currentTimeMillis());
+                dto.setContactType(1);
+                topic.publish(dto);
+                if (intervalMs > 0) {
+                    Thread.sleep(intervalMs);
+                }
+            }
+            Thread.sleep(3000);
+        } finally {
+            redisson.shutdown();
+        }
+        System.out.println();
+        System.out.println("============ 群发测试结果 ============");
+        System.out.printf("  发送消息数:   %d%n", messages);
+        System.out.printf("  期望送达数:   %d%n", (long) messages * (connectedCount.get() - disconnectedCount.get()));
+        System.out.printf("  实际送达数:   %d%n", fanoutReceivedCount.get());
+        printHistogram("  发布到收到耗时:", fanoutHistogram);
+        System.out.println("======================================");
+    }
+
+    private static void printHistogram(String title, Histogram histogram) {
+        synchronized (histogram) {
+            if (histogram.getTotalCount() == 0) {
+                return;
+            }
+            System.out.println(title);
+            System.out.printf("    P50:     %.2f ms%n", histogram.getValueAtPercentile(50) / 1_000_000.0);
+            System.out.printf("    P90:     %.2f ms%n", histogram.getValueAtPercentile(90) / 1_000_000.0);
+            System.out.printf("    P99:     %.2f ms%n", histogram.getValueAtPercentile(99) / 1_000_000.0);
+            System.out.printf("    最大值:  %.2f ms%n", histogram.getMaxValue() / 1_000_000.0);
+        }
+    }
+
+    private static void record(Histogram histogram, long nanos) {
+        if (nanos > 0 && nanos < histogram.getHighestTrackableValue()) {
+            synchronized (histogram) {
+                histogram.recordValue(nanos);
+            }
+        }
+    }
+
     /**
      * WebSocket客户端Handler, 处理握手、心跳、断线计数
      */
@@ -211,15 +309,18 @@ public class ConcurrentConnectionBenchmark {
         private final CountDownLatch latch;
         private final ScheduledExecutorService heartbeatScheduler;
         private final int heartbeatInterval;
+        private final long connectStartNanos;
+        private boolean initReceived;
 
         BenchmarkWebSocketHandler(WebSocketClientHandshaker handshaker, int index,
                                   CountDownLatch latch, ScheduledExecutorService heartbeatScheduler,
-                                  int heartbeatInterval) {
+                                  int heartbeatInterval, long connectStartNanos) {
             this.handshaker = handshaker;
             this.index = index;
             this.latch = latch;
             this.heartbeatScheduler = heartbeatScheduler;
             this.heartbeatInterval = heartbeatInterval;
+            this.connectStartNanos = connectStartNanos;
         }
 
         @Override
@@ -250,7 +351,22 @@ public class ConcurrentConnectionBenchmark {
             }
 
             if (msg instanceof TextWebSocketFrame) {
-                // 收到服务端推送消息，忽略即可
+                long receiveNanos = System.nanoTime();
+                try {
+                    JSONObject json = JSON.parseObject(((TextWebSocketFrame) msg).text());
+                    if (!initReceived && Integer.valueOf(0).equals(json.getInteger("messageType"))) {
+                        initReceived = true;
+                        record(initHistogram, receiveNanos - connectStartNanos);
+                        return;
+                    }
+                    String content = json.getString("messageContent");
+                    if (content != null && content.startsWith(NANO_PREFIX)) {
+                        record(fanoutHistogram, receiveNanos - Long.parseLong(content.substring(NANO_PREFIX.length())));
+                        fanoutReceivedCount.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    // 忽略无法解析的消息
+                }
             } else if (msg instanceof CloseWebSocketFrame) {
                 ctx.close();
             }
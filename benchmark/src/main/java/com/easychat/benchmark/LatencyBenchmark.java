@@ -1,6 +1,7 @@
 package com.easychat.benchmark;
 
 import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
 import com.alibaba.fastjson2.JSONObject;
 import com.easychat.entity.dto.MessageSendDto;
 import io.netty.bootstrap.Bootstrap;
@@ -40,6 +41,9 @@ import java.util.concurrent.atomic.AtomicLong;
  *   RTopic.publish(MessageSendDto) -> Redis广播 -> MessageHandler.lisMessage()
  *   -> channelContextUtils.sendMessage() -> send2User() -> Channel.writeAndFlush()
  *   -> 客户端WebSocket收到
+ *
+ * 突发模式(--burst n): 每轮不间隔连续发布n条消息，统计吞吐量和客户端收到的帧数，
+ * 配合 --batch 使用服务端批量帧(messageType=14)，对比每帧消息数即可看出合并效果
  */
 public class LatencyBenchmark {
 
@@ -47,6 +51,8 @@ public class LatencyBenchmark {
     private static final Histogram histogram = new Histogram(TimeUnit.SECONDS.toNanos(10), 3);
     private static final AtomicLong messageIdSeq = new AtomicLong(0);
     private static final AtomicLong receivedCount = new AtomicLong(0);
+    private static final AtomicLong frameCount = new AtomicLong(0);
+    private static final AtomicLong batchFrameCount = new AtomicLong(0);
 
     // messageContent中嵌入nanoTime的前缀标记
     private static final String NANO_PREFIX = "BENCH_NANO:";
@@ -58,6 +64,12 @@ public class LatencyBenchmark {
         String tokensFile = p.get("tokens-file", "tokens.txt");
         int messageCount = p.getInt("messages", 1000);
         long intervalMs = p.getLong("interval-ms", 100);
+        int burst = p.getInt("burst", 0);
+        long burstIntervalMs = p.getLong("burst-interval-ms", 1000);
+        boolean batch = Boolean.parseBoolean(p.get("batch", "false"));
+        if (burst > 0) {
+            messageCount = (messageCount + burst - 1) / burst * burst;
+        }
 
         List<String> tokens = new ArrayList<>();
         try (BufferedReader br = new BufferedReader(new FileReader(tokensFile))) {
@@ -81,7 +93,11 @@ public class LatencyBenchmark {
         System.out.println("========================================");
         System.out.printf("  接收端用户:  %s%n", receiverUserId);
         System.out.printf("  消息数量:    %d%n", messageCount);
-        System.out.printf("  发送间隔:    %d ms%n", intervalMs);
+        if (burst > 0) {
+            System.out.printf("  突发模式:    每轮 %d 条, 轮间隔 %d ms, 批量帧: %s%n", burst, burstIntervalMs, batch ? "开启" : "关闭");
+        } else {
+            System.out.printf("  发送间隔:    %d ms%n", intervalMs);
+        }
         System.out.printf("  Redis:       %s%n", redisUrl);
         System.out.printf("  WS URL:      %s%n", wsUrl);
         System.out.println("========================================");
@@ -96,7 +112,7 @@ public class LatencyBenchmark {
 
         System.out.println("正在建立WebSocket接收端连接...");
         CountDownLatch connectLatch = new CountDownLatch(1);
-        String fullUrl = wsUrl + "?token=" + receiverToken;
+        String fullUrl = wsUrl + "?token=" + receiverToken + (batch ? "&batch=1" : "");
         WebSocketClientHandshaker handshaker = WebSocketClientHandshakerFactory.newHandshaker(
             new URI(fullUrl), WebSocketVersion.V13, null, true, new DefaultHttpHeaders());
 
@@ -152,10 +168,17 @@ public class LatencyBenchmark {
             dto.setSendTime(System.currentTimeMillis());
             dto.setContactType(0);
 
-            topic.publish(dto);
-
-            if (intervalMs > 0) {
-                Thread.sleep(intervalMs);
+            if (burst > 0) {
+                // 突发模式异步发布，一轮内尽量密集
+                topic.publishAsync(dto);
+                if ((i + 1) % burst == 0 && burstIntervalMs > 0) {
+                    Thread.sleep(burstIntervalMs);
+                }
+            } else {
+                topic.publish(dto);
+                if (intervalMs > 0) {
+                    Thread.sleep(intervalMs);
+                }
             }
 
             if ((i + 1) % 100 == 0) {
@@ -175,6 +198,10 @@ public class LatencyBenchmark {
         System.out.printf("  丢失消息:      %d%n", messageCount - receivedCount.get());
         System.out.printf("  测试总耗时:    %.1f 秒%n", testDuration / 1000.0);
         System.out.printf("  吞吐量:        %.0f msg/s%n", receivedCount.get() * 1000.0 / testDuration);
+        System.out.printf("  收到帧数:      %d (其中批量帧 %d)%n", frameCount.get(), batchFrameCount.get());
+        if (frameCount.get() > 0) {
+            System.out.printf("  每帧消息数:    %.2f%n", receivedCount.get() * 1.0 / frameCount.get());
+        }
         System.out.println();
 
         if (histogram.getTotalCount() > 0) {
@@ -244,16 +271,16 @@ public class LatencyBenchmark {
 
                 try {
                     JSONObject json = JSON.parseObject(text);
-                    String content = json.getString("messageContent");
-                    if (content != null && content.startsWith(NANO_PREFIX)) {
-                        long sendNano = Long.parseLong(content.substring(NANO_PREFIX.length()));
-                        long latencyNanos = receiveNano - sendNano;
-                        if (latencyNanos > 0 && latencyNanos < TimeUnit.SECONDS.toNanos(10)) {
-                            synchronized (histogram) {
-                                histogram.recordValue(latencyNanos);
-                            }
-                            receivedCount.incrementAndGet();
+                    frameCount.incrementAndGet();
+                    // 批量帧: extendData为消息列表
+                    if (Integer.valueOf(14).equals(json.getInteger("messageType"))) {
+                        batchFrameCount.incrementAndGet();
+                        JSONArray items = json.getJSONArray("extendData");
+                        for (int i = 0; i < items.size(); i++) {
+                            recordLatency(items.getJSONObject(i), receiveNano);
                         }
+                    } else {
+                        recordLatency(json, receiveNano);
                     }
                 } catch (Exception e) {
                     // 忽略非benchmark消息(INIT数据等)
@@ -261,6 +288,20 @@ public class LatencyBenchmark {
             }
         }
 
+        private void recordLatency(JSONObject json, long receiveNano) {
+            String content = json.getString("messageContent");
+            if (content != null && content.startsWith(NANO_PREFIX)) {
+                long sendNano = Long.parseLong(content.substring(NANO_PREFIX.length()));
+                long latencyNanos = receiveNano - sendNano;
+                if (latencyNanos > 0 && latencyNanos < TimeUnit.SECONDS.toNanos(10)) {
+                    synchronized (histogram) {
+                        histogram.recordValue(latencyNanos);
+                    }
+                    receivedCount.incrementAndGet();
+                }
+            }
+        }
+
         @Override
         public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
             System.err.println("连接异常: " + cause.getMessage());
@@ -2,6 +2,7 @@ package com.easychat.benchmark;
 
 import org.redisson.Redisson;
 import org.redisson.api.RBucket;
+import org.redisson.api.RList;
 import org.redisson.api.RedissonClient;
 import org.redisson.client.codec.StringCodec;
 import org.redisson.config.Config;
@@ -13,6 +14,8 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -23,6 +26,7 @@ public class TokenGenerator {
 
     private static final String REDIS_KEY_WS_TOKEN = "easychat:ws:token:";
     private static final String REDIS_KEY_WS_TOKEN_USERID = "easychat:ws:token:userid:";
+    private static final String REDIS_KEY_USER_CONTACT = "easychat:ws:user:contact:";
     private static final long TOKEN_EXPIRE_SECONDS = 48 * 3600;
 
     public static void run(String[] args) throws Exception {
@@ -33,6 +37,8 @@ public class TokenGenerator {
         String dbPassword = p.get("db-password", "111111");
         int count = p.getInt("count", 5000);
         String output = p.get("output", "tokens.txt");
+        // 每个测试用户加入的群数量，用于对比 eager/lazy 群发模式
+        int groups = p.getInt("groups", 0);
 
         Config config = new Config();
         config.useSingleServer().setAddress(redisUrl);
@@ -48,9 +54,29 @@ public class TokenGenerator {
             "VALUES (?, ?, ?, 1, 1, ?, 0, NOW(), NOW(), ?)";
         PreparedStatement ps = conn.prepareStatement(insertSql);
 
+        // 群组: group_id字段varchar(12)，格式: G_BENCH_XXXX，群主为第一个测试用户
+        List<String> groupIds = new ArrayList<>();
+        PreparedStatement contactPs = null;
+        if (groups > 0) {
+            try (PreparedStatement groupPs = conn.prepareStatement("INSERT IGNORE INTO group_info (group_id, group_name, group_owner_id, " +
+                "create_time, join_type, status) VALUES (?, ?, 'U_BENCH_0000', NOW(), 0, 1)")) {
+                for (int g = 0; g < groups; g++) {
+                    String groupId = String.format("G_BENCH_%04d", g);
+                    groupIds.add(groupId);
+                    groupPs.setString(1, groupId);
+                    groupPs.setString(2, "bench_group_" + g);
+                    groupPs.addBatch();
+                }
+                groupPs.executeBatch();
+            }
+            contactPs = conn.prepareStatement("INSERT IGNORE INTO user_contact (user_id, contact_id, contact_type, create_time, status, " +
+                "last_update_time) VALUES (?, ?, 1, NOW(), 1, NOW())");
+        }
+
         System.out.printf("正在生成 %d 个测试用户和Token...%n", count);
         System.out.printf("  Redis:  %s%n", redisUrl);
         System.out.printf("  MySQL:  %s%n", dbUrl);
+        System.out.printf("  群数量:  %d%n", groups);
 
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(output))) {
             for (int i = 0; i < count; i++) {
@@ -82,12 +108,30 @@ public class TokenGenerator {
                     REDIS_KEY_WS_TOKEN_USERID + userId, StringCodec.INSTANCE);
                 userBucket.set("\"" + token + "\"", Duration.ofSeconds(TOKEN_EXPIRE_SECONDS));
 
+                // 3. 加入群组: MySQL联系人记录 + Redis联系人列表(eager模式连接时读取)
+                if (!groupIds.isEmpty()) {
+                    List<String> contactJson = new ArrayList<>(groupIds.size());
+                    for (String groupId : groupIds) {
+                        contactPs.setString(1, userId);
+                        contactPs.setString(2, groupId);
+                        contactPs.addBatch();
+                        contactJson.add("\"" + groupId + "\"");
+                    }
+                    RList<String> contactList = redisson.getList(REDIS_KEY_USER_CONTACT + userId, StringCodec.INSTANCE);
+                    contactList.delete();
+                    contactList.addAll(contactJson);
+                    contactList.expire(Duration.ofSeconds(TOKEN_EXPIRE_SECONDS));
+                }
+
                 writer.write(token);
                 writer.newLine();
 
                 // 每500条批量提交一次
                 if ((i + 1) % 500 == 0) {
                     ps.executeBatch();
+                    if (contactPs != null) {
+                        contactPs.executeBatch();
+                    }
                     conn.commit();
                     System.out.printf("  已生成 %d / %d%n", i + 1, count);
                 }
@@ -95,10 +139,16 @@ public class TokenGenerator {
 
             // 提交剩余
             ps.executeBatch();
+            if (contactPs != null) {
+                contactPs.executeBatch();
+            }
             conn.commit();
         }
 
         ps.close();
+        if (contactPs != null) {
+            contactPs.close();
+        }
         conn.close();
         redisson.shutdown();
 
@@ -84,10 +84,18 @@ const selectByMessageId = (messageId) => {
     return queryOne(sql, params)
 }
 
+//本地收到的最大消息id，重连时作为同步位置
+const selectMaxMessageId = async () => {
+    let sql = "select max(message_id) max_message_id from chat_message where user_id = ?";
+    const row = await queryOne(sql, [store.getUserId()]);
+    return row ? row.maxMessageId : null;
+}
+
 export {
     saveMessage,
     updateMessage,
     selectMessageList,
     saveMessageBatch,
-    selectByMessageId
+    selectByMessageId,
+    selectMaxMessageId
 }
\ No newline at end of file
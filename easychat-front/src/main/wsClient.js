@@ -1,9 +1,10 @@
 import WebSocket from 'ws'
 const NODE_ENV = process.env.NODE_ENV
-import { saveMessage, saveMessageBatch, updateMessage } from "./db/ChatMessageModel"
+const axios = require('axios');
+import { saveMessage, saveMessageBatch, updateMessage, selectByMessageId, selectMaxMessageId } from "./db/ChatMessageModel"
 import {
     saveOrUpdateChatSessionBatch4Init, saveOrUpdate4Message,
-    updateGroupName, delChatSession, selectUserSessionByContactId
+    updateGroupName, delChatSession, selectUserSessionByContactId, selectUserSessionList
 } from "./db/ChatSessionUserModel"
 import { updateContactNoReadCount } from "./db/UserSetting"
 import { getWindow } from "./windowProxy";
@@ -19,11 +20,18 @@ let lockReconnect = false;
 let wsUrl = null;
 let sender = null;
 let needReconnect = null;
+//断线恢复令牌，短时间内重连服务端只补发断开期间的消息
+let resumeToken = null;
+//本次连接带的同步位置，同步被截断时据此补齐中间缺少的消息
+let syncFrom = null;
+//补齐时每个会话最多加载的历史消息页数
+const MAX_GAP_PAGES = 10;
 
 const initWs = (config, _sender) => {
-    wsUrl = `${NODE_ENV !== 'development' ? store.getData("prodWsDomain") : store.getData("devWsDomain")}?token=${config.token}`;
+    wsUrl = `${NODE_ENV !== 'development' ? store.getData("prodWsDomain") : store.getData("devWsDomain")}?token=${config.token}&batch=1`;
     sender = _sender;
     needReconnect = true;
+    resumeToken = null;
     maxReConnectTimes = 5;
     createWs();
 }
@@ -33,11 +41,20 @@ const closeWs = () => {
     ws.close();
 }
 
-const createWs = () => {
+const createWs = async () => {
     if (wsUrl == null) {
         return
     }
-    ws = new WebSocket(wsUrl)
+    //带上本地最大消息id，服务端只发送之后的消息
+    const syncToken = await selectMaxMessageId();
+    syncFrom = syncToken;
+    let url = syncToken ? `${wsUrl}&syncToken=${syncToken}` : wsUrl;
+    if (resumeToken) {
+        url = `${url}&resumeToken=${resumeToken}`;
+        //令牌只能用一次
+        resumeToken = null;
+    }
+    ws = new WebSocket(url)
     ws.onopen = function (params) {
         console.log('客户端连接成功')
         ws.send('heart beat')
@@ -53,6 +70,17 @@ const createWs = () => {
         }
         console.log('收到服务器消息', e.data)
         const message = JSON.parse(e.data);
+        //14批量消息，逐条处理
+        if (message.messageType == 14) {
+            for (const item of message.extendData) {
+                await handleMessage(item);
+            }
+            return;
+        }
+        await handleMessage(message);
+    }
+
+    const handleMessage = async (message) => {
         const leaveGroupUserId = message.extendData;
         const messageType = message.messageType;
         switch (messageType) {
@@ -66,6 +94,25 @@ const createWs = () => {
                 //发送消息
                 sender.send("reciveMessage", { messageType: message.messageType });
                 break;
+            case 15: {//重连增量同步
+                //同步范围和实时推送有重叠，已有的消息不再保存，避免未读数重复计算
+                const syncMessageList = [];
+                for (const item of message.extendData.chatMessageList) {
+                    if (!await selectByMessageId(item.messageId)) {
+                        syncMessageList.push(item);
+                    }
+                }
+                await saveMessageBatch(syncMessageList);
+                //超过条数上限时服务端只发送最新的消息，最后一帧之后补齐更早的
+                if (message.extendData.truncated && !message.extendData.hasMore) {
+                    await fillSyncGap(syncFrom);
+                }
+                sender.send("reciveMessage", { messageType: message.messageType });
+                break;
+            }
+            case 16://断线恢复令牌
+                resumeToken = message.extendData;
+                break;
             case 4://好友申请
                 await updateContactNoReadCount({ userId: store.getUserId(), noReadCount: 1 });
                 sender.send("reciveMessage", { messageType: message.messageType });
@@ -172,6 +219,47 @@ const createWs = () => {
     }, 1000 * 5);
 }
 
+//按会话加载历史消息，补齐fromMessageId之后没有同步的消息
+const fillSyncGap = async (fromMessageId) => {
+    if (!fromMessageId) {
+        return;
+    }
+    const url = `${NODE_ENV !== 'development' ? store.getData("prodDomain") : store.getData("devDomain")}/api/chat/loadHistory`;
+    const config = { headers: { "token": store.getUserData("token") } };
+    const sessionList = await selectUserSessionList();
+    for (const session of sessionList) {
+        let beforeSeq = null;
+        for (let page = 0; page < MAX_GAP_PAGES; page++) {
+            let history = null;
+            try {
+                const response = await axios.post(url, null, { ...config, params: { contactId: session.contactId, beforeSeq } });
+                history = response.data.data;
+            } catch (error) {
+                console.error('加载历史消息失败', error);
+            }
+            if (!history || !history.list) {
+                break;
+            }
+            const gapMessageList = [];
+            let reached = false;
+            for (const item of history.list) {
+                if (item.messageId <= fromMessageId) {
+                    reached = true;
+                    continue;
+                }
+                if (!await selectByMessageId(item.messageId)) {
+                    gapMessageList.push(item);
+                }
+            }
+            await saveMessageBatch(gapMessageList);
+            if (reached || !history.hasMore) {
+                break;
+            }
+            beforeSeq = history.nextBeforeSeq;
+        }
+    }
+}
+
 export {
     initWs,
     closeWs
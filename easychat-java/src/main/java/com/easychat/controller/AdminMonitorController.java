@@ -0,0 +1,116 @@
+package com.easychat.controller;
+
+import com.easychat.annotation.GlobalInterceptor;
+import com.easychat.entity.vo.ResponseVO;
+import com.easychat.service.impl.ChatMessageWriteBehind;
+import com.easychat.service.impl.ChatSessionLastMessageUpdater;
+import com.easychat.utils.SnowflakeIdGenerator;
+import com.easychat.websocket.ChannelContextUtils;
+import com.easychat.websocket.GroupChannelRegistry;
+import com.easychat.websocket.GroupMemberIndex;
+import com.easychat.websocket.MessageHandler;
+import com.easychat.websocket.MessagePublishBatcher;
+import com.easychat.websocket.WsBusinessExecutor;
+import com.easychat.websocket.WsMessageSync;
+import com.easychat.websocket.WsResumeBuffer;
+import com.easychat.websocket.netty.WsBackPressure;
+import com.easychat.websocket.netty.WsCompressionStats;
+import com.easychat.websocket.netty.WsMessageBatch;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import jakarta.annotation.Resource;
+import jakarta.validation.constraints.NotEmpty;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController("adminMonitorController")
+@RequestMapping("/admin")
+@Validated
+public class AdminMonitorController extends ABaseController {
+
+    @Resource
+    private ChannelContextUtils channelContextUtils;
+
+    @Resource
+    private GroupChannelRegistry groupChannelRegistry;
+
+    @Resource
+    private GroupMemberIndex groupMemberIndex;
+
+    @Resource
+    private MessageHandler messageHandler;
+
+    @Resource
+    private MessagePublishBatcher messagePublishBatcher;
+
+    @Resource
+    private WsBusinessExecutor wsBusinessExecutor;
+
+    @Resource
+    private WsCompressionStats wsCompressionStats;
+
+    @Resource
+    private WsBackPressure wsBackPressure;
+
+    @Resource
+    private WsMessageBatch wsMessageBatch;
+
+    @Resource
+    private WsMessageSync wsMessageSync;
+
+    @Resource
+    private WsResumeBuffer wsResumeBuffer;
+
+    @Resource
+    private ChatMessageWriteBehind chatMessageWriteBehind;
+
+    @Resource
+    private SnowflakeIdGenerator snowflakeIdGenerator;
+
+    @Resource
+    private ChatSessionLastMessageUpdater chatSessionLastMessageUpdater;
+
+    /**
+     * ws 网关运行指标
+     */
+    @RequestMapping("/getWsStats")
+    @GlobalInterceptor(checkAdmin = true)
+    public ResponseVO getWsStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("businessExecutor", wsBusinessExecutor.getStats());
+        stats.put("compression", wsCompressionStats.getStats());
+        stats.put("backPressure", wsBackPressure.getStats());
+        stats.put("messageBatch", wsMessageBatch.getStats());
+        stats.put("groupRegistry", groupChannelRegistry.getStats());
+        stats.put("groupMemberIndex", groupMemberIndex.getStats());
+        stats.put("messageRoute", messageHandler.getStats());
+        stats.put("messagePublish", messagePublishBatcher.getStats());
+        stats.put("messageSync", wsMessageSync.getStats());
+        stats.put("resume", wsResumeBuffer.getStats());
+        return getSuccessResponseVO(stats);
+    }
+
+    /**
+     * 聊天消息写入指标
+     */
+    @RequestMapping("/getMessageStoreStats")
+    @GlobalInterceptor(checkAdmin = true)
+    public ResponseVO getMessageStoreStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("writeBehind", chatMessageWriteBehind.getStats());
+        stats.put("idGenerator", snowflakeIdGenerator.getStats());
+        stats.put("sessionUpdate", chatSessionLastMessageUpdater.getStats());
+        return getSuccessResponseVO(stats);
+    }
+
+    /**
+     * 用户在线连接的统计信息
+     */
+    @RequestMapping("/getWsConnection")
+    @GlobalInterceptor(checkAdmin = true)
+    public ResponseVO getWsConnection(@NotEmpty String userId) {
+        return getSuccessResponseVO(channelContextUtils.getConnectionStats(userId));
+    }
+}
@@ -8,6 +8,7 @@ import com.easychat.entity.dto.TokenUserInfoDto;
 import com.easychat.entity.enums.MessageTypeEnum;
 import com.easychat.entity.enums.ResponseCodeEnum;
 import com.easychat.entity.po.ChatMessage;
+import com.easychat.entity.vo.MessageHistoryVO;
 import com.easychat.entity.vo.ResponseVO;
 import com.easychat.exception.BusinessException;
 import com.easychat.service.ChatMessageService;
@@ -78,6 +79,20 @@ public class ChatController extends ABaseController {
         return getSuccessResponseVO(messageSendDto);
     }
 
+    /**
+     * 按会话内序号向前翻页加载历史消息
+     */
+    @RequestMapping("/loadHistory")
+    @GlobalInterceptor
+    public ResponseVO loadHistory(HttpServletRequest request,
+                                  @NotEmpty String contactId,
+                                  Long beforeSeq,
+                                  Integer limit) {
+        TokenUserInfoDto tokenUserInfoDto = getTokenUserInfo(request);
+        MessageHistoryVO historyVO = chatMessageService.loadHistory(tokenUserInfoDto, contactId, beforeSeq, limit);
+        return getSuccessResponseVO(historyVO);
+    }
+
     @RequestMapping("uploadFile")
     @GlobalInterceptor
     public ResponseVO uploadFile(HttpServletRequest request,
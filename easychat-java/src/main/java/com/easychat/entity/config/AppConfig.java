@@ -24,6 +24,354 @@ public class AppConfig {
     @Value("${admin.emails:}")
     private String adminEmails;
 
+    /**
+     * ws 传输方式 auto:linux下优先epoll，不可用时回退nio epoll:强制epoll nio:强制nio
+     */
+    @Value("${ws.transport:auto}")
+    private String wsTransport;
+
+    /**
+     * ws 接收连接的线程数，epoll下通过SO_REUSEPORT让多个线程共享同一端口
+     */
+    @Value("${ws.acceptor.threads:1}")
+    private Integer wsAcceptorThreads;
+
+    /**
+     * ws io线程数，0表示使用netty默认值(cpu核数*2)
+     */
+    @Value("${ws.worker.threads:0}")
+    private Integer wsWorkerThreads;
+
+    /**
+     * ws 业务线程数，0表示cpu核数*4
+     */
+    @Value("${ws.business.threads:0}")
+    private Integer wsBusinessThreads;
+
+    /**
+     * ws 业务线程单线程队列长度
+     */
+    @Value("${ws.business.queue-size:1024}")
+    private Integer wsBusinessQueueSize;
+
+    /**
+     * ws 业务队列满时的策略 reject:拒绝(新连接直接关闭，心跳丢弃) caller-runs:在io线程上直接执行
+     */
+    @Value("${ws.business.reject-policy:reject}")
+    private String wsBusinessRejectPolicy;
+
+    /**
+     * ws 是否开启permessage-deflate压缩
+     */
+    @Value("${ws.compression.enabled:true}")
+    private Boolean wsCompressionEnabled;
+
+    /**
+     * ws 压缩阈值，小于该字节数的帧不压缩
+     */
+    @Value("${ws.compression.min-size:1024}")
+    private Integer wsCompressionMinSize;
+
+    /**
+     * ws 压缩级别 1-9
+     */
+    @Value("${ws.compression.level:6}")
+    private Integer wsCompressionLevel;
+
+    /**
+     * ws 压缩是否每条消息重置上下文(server/client_no_context_takeover)，开启后连接不长期持有压缩窗口
+     */
+    @Value("${ws.compression.no-context-takeover:true}")
+    private Boolean wsCompressionNoContextTakeover;
+
+    /**
+     * ws 写缓冲低水位，回落到该值以下通道恢复可写
+     */
+    @Value("${ws.write-buffer.low-water-mark:32768}")
+    private Integer wsWriteBufferLowWaterMark;
+
+    /**
+     * ws 写缓冲高水位，超过后通道不可写
+     */
+    @Value("${ws.write-buffer.high-water-mark:65536}")
+    private Integer wsWriteBufferHighWaterMark;
+
+    /**
+     * ws 通道不可写时的策略 queue coalesce drop disconnect
+     */
+    @Value("${ws.backpressure.policy:drop}")
+    private String wsBackPressurePolicy;
+
+    /**
+     * ws 单通道最大积压字节数，超过后断开
+     */
+    @Value("${ws.backpressure.max-pending-bytes:1048576}")
+    private Integer wsBackPressureMaxPendingBytes;
+
+    /**
+     * ws 积压时可丢弃、可合并的消息类型，逗号分隔
+     */
+    @Value("${ws.backpressure.droppable-types:10}")
+    private String wsBackPressureDroppableTypes;
+
+    /**
+     * ws 单个用户最多同时在线的设备数
+     */
+    @Value("${ws.max-devices:5}")
+    private Integer wsMaxDevices;
+
+    /**
+     * ws 客户端心跳间隔(毫秒)，断线恢复时断开前一个心跳周期内收到过客户端数据不再查询数据库补齐
+     */
+    @Value("${ws.heartbeat.interval-ms:5000}")
+    private Long wsHeartbeatIntervalMs;
+
+    /**
+     * ws 群发模式 eager:连接时加入所有群 lazy:发送时按群成员索引查找
+     */
+    @Value("${ws.group.fanout-mode:eager}")
+    private String wsGroupFanoutMode;
+
+    /**
+     * ws 群成员索引过期时间(秒)
+     */
+    @Value("${ws.group.index-ttl-seconds:300}")
+    private Integer wsGroupIndexTtlSeconds;
+
+    /**
+     * ws 群成员索引最多缓存的群数
+     */
+    @Value("${ws.group.index-max-groups:10000}")
+    private Integer wsGroupIndexMaxGroups;
+
+    /**
+     * ws 连续多少次flush后强制刷出，0表示不合并flush
+     */
+    @Value("${ws.flush.consolidate-after:256}")
+    private Integer wsFlushConsolidateAfter;
+
+    /**
+     * ws 批量消息合并窗口(毫秒)
+     */
+    @Value("${ws.batch.window-ms:5}")
+    private Integer wsBatchWindowMs;
+
+    /**
+     * ws 单个批量帧最多消息数
+     */
+    @Value("${ws.batch.max-messages:64}")
+    private Integer wsBatchMaxMessages;
+
+    /**
+     * ws 单个批量帧最大字节数
+     */
+    @Value("${ws.batch.max-bytes:65536}")
+    private Integer wsBatchMaxBytes;
+
+    /**
+     * ws 节点id，用于用户路由，为空时启动时随机生成
+     */
+    @Value("${ws.node-id:}")
+    private String wsNodeId;
+
+    /**
+     * 节点间消息合并发布窗口(毫秒)，0表示逐条发布
+     */
+    @Value("${ws.publish.window-ms:2}")
+    private Integer wsPublishWindowMs;
+
+    /**
+     * 节点间单次合并发布最多消息数
+     */
+    @Value("${ws.publish.max-size:100}")
+    private Integer wsPublishMaxSize;
+
+    /**
+     * 重连增量同步每帧消息数
+     */
+    @Value("${ws.sync.page-size:200}")
+    private Integer wsSyncPageSize;
+
+    /**
+     * 重连增量同步最多消息数，超过的部分客户端按会话加载
+     */
+    @Value("${ws.sync.max-messages:5000}")
+    private Integer wsSyncMaxMessages;
+
+    /**
+     * 重连增量同步最多同步多少天内的消息
+     */
+    @Value("${ws.sync.max-days:30}")
+    private Integer wsSyncMaxDays;
+
+    /**
+     * 同步位置往前多查的时间(毫秒)，不同节点生成的消息id和提交顺序可能不一致
+     */
+    @Value("${ws.sync.overlap-ms:3000}")
+    private Integer wsSyncOverlapMs;
+
+    /**
+     * 同步时等待通道可写的超时(毫秒)，超时断开连接，客户端重连后从已收到的位置继续
+     */
+    @Value("${ws.sync.write-timeout-ms:10000}")
+    private Integer wsSyncWriteTimeoutMs;
+
+    /**
+     * 断线后保留推送消息的时间(秒)，期间带恢复令牌重连只补发这些消息，0表示关闭
+     */
+    @Value("${ws.resume.window-seconds:30}")
+    private Integer wsResumeWindowSeconds;
+
+    /**
+     * 每个断开的连接最多保留的消息数，超过后不能恢复，重连时完整初始化
+     */
+    @Value("${ws.resume.max-frames:200}")
+    private Integer wsResumeMaxFrames;
+
+    /**
+     * 本节点最多同时保留的断开连接数
+     */
+    @Value("${ws.resume.max-sessions:10000}")
+    private Integer wsResumeMaxSessions;
+
+    /**
+     * 离线收件箱每个用户最多保留的消息数，0表示关闭，重连同步直接查询数据库
+     */
+    @Value("${ws.inbox.max-size:1000}")
+    private Integer wsInboxMaxSize;
+
+    /**
+     * 开启离线收件箱时的消息投递线程数，0表示cpu核数
+     */
+    @Value("${ws.delivery.threads:0}")
+    private Integer wsDeliveryThreads;
+
+    /**
+     * 消息投递每个线程的队列长度，满时由调用线程直接投递
+     */
+    @Value("${ws.delivery.queue-size:10000}")
+    private Integer wsDeliveryQueueSize;
+
+    /**
+     * 聊天消息合并写入窗口(毫秒)，0表示逐条同步写入
+     */
+    @Value("${chat.message.write-behind.window-ms:2}")
+    private Integer chatMessageWriteBehindWindowMs;
+
+    /**
+     * 聊天消息单次合并写入最多条数
+     */
+    @Value("${chat.message.write-behind.max-batch:200}")
+    private Integer chatMessageWriteBehindMaxBatch;
+
+    /**
+     * 聊天消息合并写入线程数
+     */
+    @Value("${chat.message.write-behind.threads:2}")
+    private Integer chatMessageWriteBehindThreads;
+
+    /**
+     * 聊天消息待写入队列长度，超过后由请求线程直接写入
+     */
+    @Value("${chat.message.write-behind.queue-capacity:10000}")
+    private Integer chatMessageWriteBehindQueueCapacity;
+
+    /**
+     * 等待消息写入的超时时间(毫秒)
+     */
+    @Value("${chat.message.write-behind.timeout-ms:3000}")
+    private Integer chatMessageWriteBehindTimeoutMs;
+
+    /**
+     * 消息id节点号(0-31)，多节点部署时每个节点不同，-1表示从redis租用
+     */
+    @Value("${chat.message.id.worker-id:-1}")
+    private Integer chatMessageIdWorkerId;
+
+    /**
+     * 会话最后一条消息合并更新间隔(毫秒)，0表示逐条更新
+     */
+    @Value("${chat.session.update.window-ms:200}")
+    private Integer chatSessionUpdateWindowMs;
+
+    /**
+     * 会话最后一条消息单条语句最多更新会话数
+     */
+    @Value("${chat.session.update.max-batch:500}")
+    private Integer chatSessionUpdateMaxBatch;
+
+    /**
+     * ws 节点间消息通道 topic/stream
+     */
+    @Value("${ws.bus.type:topic}")
+    private String wsBusType;
+
+    /**
+     * ws 节点间消息编码 jsonb/default
+     */
+    @Value("${ws.bus.codec:jsonb}")
+    private String wsBusCodec;
+
+    /**
+     * stream 最大长度(近似裁剪)
+     */
+    @Value("${ws.bus.stream.max-len:10000}")
+    private Integer wsBusStreamMaxLen;
+
+    /**
+     * stream 单次读取消息数
+     */
+    @Value("${ws.bus.stream.read-count:100}")
+    private Integer wsBusStreamReadCount;
+
+    /**
+     * stream 读取阻塞时间(毫秒)
+     */
+    @Value("${ws.bus.stream.block-ms:1000}")
+    private Integer wsBusStreamBlockMs;
+
+    /**
+     * stream 节点存活标记过期时间(秒)，过期后不再给该节点写入
+     */
+    @Value("${ws.bus.stream.node-timeout-seconds:60}")
+    private Integer wsBusStreamNodeTimeoutSeconds;
+
+    /**
+     * stream 消息最多投递次数，超过后移入死信stream
+     */
+    @Value("${ws.bus.stream.max-deliveries:5}")
+    private Integer wsBusStreamMaxDeliveries;
+
+    /**
+     * stream 消息投递后多久没有ack重新处理(毫秒)
+     */
+    @Value("${ws.bus.stream.claim-idle-ms:30000}")
+    private Integer wsBusStreamClaimIdleMs;
+
+    /**
+     * 进程内消息通道分发线程数，0表示cpu核数
+     */
+    @Value("${ws.bus.local.threads:0}")
+    private Integer wsBusLocalThreads;
+
+    /**
+     * 进程内消息通道单线程队列长度
+     */
+    @Value("${ws.bus.local.queue-capacity:100000}")
+    private Integer wsBusLocalQueueCapacity;
+
+    /**
+     * 进程内消息通道队列满时调用线程最长等待时间(毫秒)，超时由调用线程直接投递
+     */
+    @Value("${ws.bus.local.offer-timeout-ms:1000}")
+    private Integer wsBusLocalOfferTimeoutMs;
+
+    /**
+     * 进程内消息通道是否订阅redis广播topic(压测工具使用)
+     */
+    @Value("${ws.bus.local.listen-topic:false}")
+    private Boolean wsBusLocalListenTopic;
+
     public String getProjectFolder() {
         if (!StringTools.isEmpty(projectFolder) && !projectFolder.endsWith("/")) {
             projectFolder = projectFolder + "/";
@@ -38,4 +386,236 @@ public class AppConfig {
     public Integer getWsPort() {
         return wsPort;
     }
+
+    public String getWsTransport() {
+        return wsTransport;
+    }
+
+    public Integer getWsAcceptorThreads() {
+        return wsAcceptorThreads;
+    }
+
+    public Integer getWsWorkerThreads() {
+        return wsWorkerThreads;
+    }
+
+    public Integer getWsBusinessThreads() {
+        return wsBusinessThreads;
+    }
+
+    public Integer getWsBusinessQueueSize() {
+        return wsBusinessQueueSize;
+    }
+
+    public String getWsBusinessRejectPolicy() {
+        return wsBusinessRejectPolicy;
+    }
+
+    public Boolean getWsCompressionEnabled() {
+        return wsCompressionEnabled;
+    }
+
+    public Integer getWsCompressionMinSize() {
+        return wsCompressionMinSize;
+    }
+
+    public Integer getWsCompressionLevel() {
+        return wsCompressionLevel;
+    }
+
+    public Boolean getWsCompressionNoContextTakeover() {
+        return wsCompressionNoContextTakeover;
+    }
+
+    public Integer getWsWriteBufferLowWaterMark() {
+        return wsWriteBufferLowWaterMark;
+    }
+
+    public Integer getWsWriteBufferHighWaterMark() {
+        return wsWriteBufferHighWaterMark;
+    }
+
+    public String getWsBackPressurePolicy() {
+        return wsBackPressurePolicy;
+    }
+
+    public Integer getWsBackPressureMaxPendingBytes() {
+        return wsBackPressureMaxPendingBytes;
+    }
+
+    public String getWsBackPressureDroppableTypes() {
+        return wsBackPressureDroppableTypes;
+    }
+
+    public Integer getWsMaxDevices() {
+        return wsMaxDevices;
+    }
+
+    public String getWsGroupFanoutMode() {
+        return wsGroupFanoutMode;
+    }
+
+    public Integer getWsGroupIndexTtlSeconds() {
+        return wsGroupIndexTtlSeconds;
+    }
+
+    public Integer getWsGroupIndexMaxGroups() {
+        return wsGroupIndexMaxGroups;
+    }
+
+    public Integer getWsFlushConsolidateAfter() {
+        return wsFlushConsolidateAfter;
+    }
+
+    public Integer getWsBatchWindowMs() {
+        return wsBatchWindowMs;
+    }
+
+    public Integer getWsBatchMaxMessages() {
+        return wsBatchMaxMessages;
+    }
+
+    public Integer getWsBatchMaxBytes() {
+        return wsBatchMaxBytes;
+    }
+
+    public String getWsNodeId() {
+        return wsNodeId;
+    }
+
+    public Integer getWsPublishWindowMs() {
+        return wsPublishWindowMs;
+    }
+
+    public Integer getWsPublishMaxSize() {
+        return wsPublishMaxSize;
+    }
+
+    public String getWsBusType() {
+        return wsBusType;
+    }
+
+    public Integer getWsBusStreamMaxLen() {
+        return wsBusStreamMaxLen;
+    }
+
+    public Integer getWsBusStreamReadCount() {
+        return wsBusStreamReadCount;
+    }
+
+    public Integer getWsBusStreamBlockMs() {
+        return wsBusStreamBlockMs;
+    }
+
+    public Integer getWsBusStreamNodeTimeoutSeconds() {
+        return wsBusStreamNodeTimeoutSeconds;
+    }
+
+    public Integer getWsBusStreamMaxDeliveries() {
+        return wsBusStreamMaxDeliveries;
+    }
+
+    public Integer getWsBusStreamClaimIdleMs() {
+        return wsBusStreamClaimIdleMs;
+    }
+
+    public String getWsBusCodec() {
+        return wsBusCodec;
+    }
+
+    public Integer getWsBusLocalThreads() {
+        return wsBusLocalThreads;
+    }
+
+    public Integer getWsBusLocalQueueCapacity() {
+        return wsBusLocalQueueCapacity;
+    }
+
+    public Integer getWsBusLocalOfferTimeoutMs() {
+        return wsBusLocalOfferTimeoutMs;
+    }
+
+    public Boolean getWsBusLocalListenTopic() {
+        return wsBusLocalListenTopic;
+    }
+
+    public Integer getChatMessageWriteBehindWindowMs() {
+        return chatMessageWriteBehindWindowMs;
+    }
+
+    public Integer getChatMessageWriteBehindMaxBatch() {
+        return chatMessageWriteBehindMaxBatch;
+    }
+
+    public Integer getChatMessageWriteBehindThreads() {
+        return chatMessageWriteBehindThreads;
+    }
+
+    public Integer getChatMessageWriteBehindQueueCapacity() {
+        return chatMessageWriteBehindQueueCapacity;
+    }
+
+    public Integer getChatMessageWriteBehindTimeoutMs() {
+        return chatMessageWriteBehindTimeoutMs;
+    }
+
+    public Integer getChatMessageIdWorkerId() {
+        return chatMessageIdWorkerId;
+    }
+
+    public Integer getChatSessionUpdateWindowMs() {
+        return chatSessionUpdateWindowMs;
+    }
+
+    public Integer getChatSessionUpdateMaxBatch() {
+        return chatSessionUpdateMaxBatch;
+    }
+
+    public Integer getWsSyncPageSize() {
+        return wsSyncPageSize;
+    }
+
+    public Integer getWsSyncMaxMessages() {
+        return wsSyncMaxMessages;
+    }
+
+    public Integer getWsSyncMaxDays() {
+        return wsSyncMaxDays;
+    }
+
+    public Integer getWsSyncOverlapMs() {
+        return wsSyncOverlapMs;
+    }
+
+    public Integer getWsSyncWriteTimeoutMs() {
+        return wsSyncWriteTimeoutMs;
+    }
+
+    public Integer getWsResumeWindowSeconds() {
+        return wsResumeWindowSeconds;
+    }
+
+    public Integer getWsResumeMaxFrames() {
+        return wsResumeMaxFrames;
+    }
+
+    public Integer getWsResumeMaxSessions() {
+        return wsResumeMaxSessions;
+    }
+
+    public Integer getWsInboxMaxSize() {
+        return wsInboxMaxSize;
+    }
+
+    public Integer getWsDeliveryThreads() {
+        return wsDeliveryThreads;
+    }
+
+    public Integer getWsDeliveryQueueSize() {
+        return wsDeliveryQueueSize;
+    }
+
+    public Long getWsHeartbeatIntervalMs() {
+        return wsHeartbeatIntervalMs;
+    }
 }
@@ -15,6 +15,9 @@ public class Constants {
 
     public static final Integer LENGTH_30 = 30;
 
+    //历史消息单次最多条数
+    public static final Integer MESSAGE_HISTORY_MAX_LIMIT = 100;
+
     public static final String SESSION_KEY = "session_key";
 
     public static final String FILE_FOLDER_FILE = "/file/";
@@ -69,6 +72,39 @@ public class Constants {
 
     public static final String REDIS_KEY_WS_ON_LINE_USER = "easychat:ws:online:";
 
+    //用户所在ws节点
+    public static final String REDIS_KEY_WS_USER_ROUTE = "easychat:ws:user:route:";
+
+    //在线的ws节点
+    public static final String REDIS_KEY_WS_NODES = "easychat:ws:nodes";
+
+    //ws节点存活标记
+    public static final String REDIS_KEY_WS_NODE_ALIVE = "easychat:ws:node:alive:";
+
+    //节点消息stream
+    public static final String REDIS_KEY_WS_STREAM_NODE = "easychat:ws:stream:node:";
+
+    //广播消息stream
+    public static final String REDIS_KEY_WS_STREAM_BROADCAST = "easychat:ws:stream:broadcast";
+
+    //投递次数超过上限的节点消息
+    public static final String REDIS_KEY_WS_STREAM_DEAD = "easychat:ws:stream:dead";
+
+    //会话内消息序号
+    public static final String REDIS_KEY_SESSION_SEQ = "easychat:session:seq:";
+
+    //消息id节点号租约
+    public static final String REDIS_KEY_MESSAGE_ID_WORKER = "easychat:message:id:worker:";
+
+    //用户离线收件箱，离线期间收到的消息id
+    public static final String REDIS_KEY_USER_INBOX = "easychat:ws:user:inbox:";
+
+    //用户离线收件箱的起始时间，存在表示用户离线中
+    public static final String REDIS_KEY_USER_INBOX_MARK = "easychat:ws:user:inbox:mark:";
+
+    //群里离线中(有收件箱)的成员
+    public static final String REDIS_KEY_GROUP_OFFLINE_USER = "easychat:ws:group:offline:";
+
     //用户联系人列表
     public static final String REDIS_KEY_USER_CONTACT = "easychat:ws:user:contact:";
 
@@ -0,0 +1,28 @@
+package com.easychat.entity.dto;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 节点间批量发布的消息
+ */
+public class MessageSendBatchDto implements Serializable {
+    private static final long serialVersionUID = 4185730215893466029L;
+
+    private List<MessageSendDto> messageList;
+
+    public MessageSendBatchDto() {
+    }
+
+    public MessageSendBatchDto(List<MessageSendDto> messageList) {
+        this.messageList = messageList;
+    }
+
+    public List<MessageSendDto> getMessageList() {
+        return messageList;
+    }
+
+    public void setMessageList(List<MessageSendDto> messageList) {
+        this.messageList = messageList;
+    }
+}
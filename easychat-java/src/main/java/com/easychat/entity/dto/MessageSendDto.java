@@ -44,6 +44,9 @@ public class MessageSendDto<T> implements Serializable {
     //群员
     private Integer memberCount;
 
+    //会话内消息序号
+    private Long seq;
+
     public Integer getStatus() {
         return status;
     }
@@ -182,4 +185,12 @@ public class MessageSendDto<T> implements Serializable {
     public void setMemberCount(Integer memberCount) {
         this.memberCount = memberCount;
     }
+
+    public Long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(Long seq) {
+        this.seq = seq;
+    }
 }
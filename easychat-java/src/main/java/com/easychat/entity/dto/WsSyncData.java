@@ -0,0 +1,51 @@
+package com.easychat.entity.dto;
+
+import com.easychat.entity.po.ChatMessage;
+
+import java.util.List;
+
+/**
+ * 重连增量同步的一页消息
+ */
+public class WsSyncData {
+    //按消息id从小到大
+    private List<ChatMessage> chatMessageList;
+    //客户端保存，下次重连时带上
+    private Long syncToken;
+    //后面还有同步帧
+    private Boolean hasMore;
+    //有消息没有同步(超出同步时间范围或条数上限时只发送最新的消息)，客户端按会话加载历史消息补齐
+    private Boolean truncated;
+
+    public List<ChatMessage> getChatMessageList() {
+        return chatMessageList;
+    }
+
+    public void setChatMessageList(List<ChatMessage> chatMessageList) {
+        this.chatMessageList = chatMessageList;
+    }
+
+    public Long getSyncToken() {
+        return syncToken;
+    }
+
+    public void setSyncToken(Long syncToken) {
+        this.syncToken = syncToken;
+    }
+
+    public Boolean getHasMore() {
+        return hasMore;
+    }
+
+    public void setHasMore(Boolean hasMore) {
+        this.hasMore = hasMore;
+    }
+
+    public Boolean getTruncated() {
+        return truncated;
+    }
+
+    public void setTruncated(Boolean truncated) {
+        this.truncated = truncated;
+    }
+}
@@ -15,7 +15,10 @@ public enum MessageTypeEnum {
     CONTACT_NAME_UPDATE(10, "", "更新群昵称"),
     LEAVE_GROUP(11, "%s退出了群聊", "退出群聊"),
     REMOVE_GROUP(12, "%s被管理员移出了群聊", "被管理员移出了群聊"),
-    ADD_FRIEND_SELF(13, "", "添加好友打招呼消息发送给自己");
+    ADD_FRIEND_SELF(13, "", "添加好友打招呼消息发送给自己"),
+    BATCH(14, "", "批量消息，extendData为消息列表"),
+    SYNC(15, "", "重连增量同步，extendData为WsSyncData"),
+    RESUME(16, "", "断线恢复令牌，extendData为令牌，短时间内重连带上可以跳过初始化");
 
     private Integer type;
     private String initMessage;
@@ -0,0 +1,34 @@
+package com.easychat.entity.enums;
+
+
+public enum WsBackPressurePolicyEnum {
+    QUEUE("queue", "通道不可写时消息暂存到通道队列，可写后补发"),
+    COALESCE("coalesce", "同queue，可丢弃类型的消息同一联系人只保留最新一条"),
+    DROP("drop", "通道不可写时丢弃可丢弃类型的消息，其余消息暂存"),
+    DISCONNECT("disconnect", "消息照常写出，积压超过阈值直接断开");
+
+    private String policy;
+    private String desc;
+
+    WsBackPressurePolicyEnum(String policy, String desc) {
+        this.policy = policy;
+        this.desc = desc;
+    }
+
+    public static WsBackPressurePolicyEnum getByPolicy(String policy) {
+        for (WsBackPressurePolicyEnum item : WsBackPressurePolicyEnum.values()) {
+            if (item.getPolicy().equalsIgnoreCase(policy)) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    public String getPolicy() {
+        return policy;
+    }
+
+    public String getDesc() {
+        return desc;
+    }
+}
@@ -0,0 +1,39 @@
+package com.easychat.entity.vo;
+
+import com.easychat.entity.po.ChatMessage;
+
+import java.io.Serializable;
+import java.util.List;
+
+public class MessageHistoryVO implements Serializable {
+    //按会话内序号从小到大
+    private List<ChatMessage> list;
+    //下一页的beforeSeq
+    private Long nextBeforeSeq;
+    //是否还有更早的消息
+    private Boolean hasMore;
+
+    public List<ChatMessage> getList() {
+        return list;
+    }
+
+    public void setList(List<ChatMessage> list) {
+        this.list = list;
+    }
+
+    public Long getNextBeforeSeq() {
+        return nextBeforeSeq;
+    }
+
+    public void setNextBeforeSeq(Long nextBeforeSeq) {
+        this.nextBeforeSeq = nextBeforeSeq;
+    }
+
+    public Boolean getHasMore() {
+        return hasMore;
+    }
+
+    public void setHasMore(Boolean hasMore) {
+        this.hasMore = hasMore;
+    }
+}
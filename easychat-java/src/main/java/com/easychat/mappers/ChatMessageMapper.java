@@ -2,6 +2,8 @@ package com.easychat.mappers;
 
 import org.apache.ibatis.annotations.Param;
 
+import java.util.List;
+
 /**
  * 聊天消息表 数据库操作接口
  */
@@ -25,4 +27,36 @@ public interface ChatMessageMapper<T,P> extends BaseMapper<T,P> {
 	 T selectByMessageId(@Param("messageId") Long messageId);
 
 
+	/**
+	 * 会话内最大消息序号
+	 */
+	 Long selectMaxSeq(@Param("sessionId") String sessionId);
+
+
+	/**
+	 * 按会话内序号倒序取beforeSeq之前的消息，beforeSeq为空时从最新一条开始
+	 */
+	 List<T> selectBySessionIdBeforeSeq(@Param("sessionId") String sessionId, @Param("beforeSeq") Long beforeSeq, @Param("limit") Integer limit);
+
+
+	/**
+	 * 按消息id顺序取afterMessageId之后发给这些联系人的一页消息
+	 */
+	 List<T> selectPageByContactIds(@Param("contactIdList") List<String> contactIdList, @Param("afterMessageId") Long afterMessageId,
+										@Param("toMessageId") Long toMessageId, @Param("sendTimeFrom") Long sendTimeFrom, @Param("limit") Integer limit);
+
+
+	/**
+	 * 发给这些联系人的消息中从最新一条往前数第offset+1条的消息id，不足时返回空
+	 */
+	 Long selectNewestOffsetId(@Param("contactIdList") List<String> contactIdList, @Param("afterMessageId") Long afterMessageId,
+							   @Param("toMessageId") Long toMessageId, @Param("sendTimeFrom") Long sendTimeFrom, @Param("offset") Integer offset);
+
+
+	/**
+	 * 根据消息id批量查询，按消息id排序
+	 */
+	 List<T> selectByMessageIdList(@Param("messageIdList") List<Long> messageIdList);
+
+
 }
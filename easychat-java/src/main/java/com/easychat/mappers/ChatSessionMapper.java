@@ -2,6 +2,8 @@ package com.easychat.mappers;
 
 import org.apache.ibatis.annotations.Param;
 
+import java.util.List;
+
 /**
  * 会话信息 数据库操作接口
  */
@@ -25,4 +27,10 @@ public interface ChatSessionMapper<T,P> extends BaseMapper<T,P> {
 	 T selectBySessionId(@Param("sessionId") String sessionId);
 
 
+	/**
+	 * 批量更新最后一条消息，只覆盖最后消息时间不晚于新值的会话
+	 */
+	 Integer updateLastMessageBatch(@Param("list") List<T> list);
+
+
 }
@@ -0,0 +1,43 @@
+package com.easychat.redis;
+
+import com.alibaba.fastjson2.JSONB;
+import com.alibaba.fastjson2.JSONReader;
+import com.alibaba.fastjson2.JSONWriter;
+import com.alibaba.fastjson2.filter.Filter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.redisson.client.codec.BaseCodec;
+import org.redisson.client.protocol.Decoder;
+import org.redisson.client.protocol.Encoder;
+
+/**
+ * 节点间消息编码，fastjson2 JSONB
+ * 按字段序列化并写入类型名，extendData(UserInfo、ChatSessionUser、String等)解码后还是原来的类型；
+ * 解码只允许 com.easychat.entity 下的类型
+ */
+public class MessageJsonbCodec extends BaseCodec {
+
+    public static final MessageJsonbCodec INSTANCE = new MessageJsonbCodec();
+
+    private static final Filter AUTO_TYPE_FILTER = JSONReader.autoTypeFilter("com.easychat.entity.");
+
+    private static final JSONWriter.Feature[] WRITE_FEATURES = {JSONWriter.Feature.WriteClassName, JSONWriter.Feature.FieldBased};
+
+    private final Encoder encoder = in -> Unpooled.wrappedBuffer(JSONB.toBytes(in, WRITE_FEATURES));
+
+    private final Decoder<Object> decoder = (buf, state) -> {
+        byte[] bytes = new byte[buf.readableBytes()];
+        buf.readBytes(bytes);
+        return JSONB.parseObject(bytes, Object.class, AUTO_TYPE_FILTER, JSONReader.Feature.FieldBased);
+    };
+
+    @Override
+    public Decoder<Object> getValueDecoder() {
+        return decoder;
+    }
+
+    @Override
+    public Encoder getValueEncoder() {
+        return encoder;
+    }
+}
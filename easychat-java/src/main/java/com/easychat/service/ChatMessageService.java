@@ -4,6 +4,7 @@ import com.easychat.entity.dto.MessageSendDto;
 import com.easychat.entity.dto.TokenUserInfoDto;
 import com.easychat.entity.po.ChatMessage;
 import com.easychat.entity.query.ChatMessageQuery;
+import com.easychat.entity.vo.MessageHistoryVO;
 import com.easychat.entity.vo.PaginationResultVO;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -78,4 +79,11 @@ public interface ChatMessageService {
     void saveMessageFile(String userId, Long messageId, MultipartFile file, MultipartFile cover);
 
     File downloadFile(TokenUserInfoDto userInfoDto, Long messageId, Boolean cover);
+
+    /**
+     * 按会话内序号分页加载历史消息
+     *
+     * @param beforeSeq 取这个序号之前的消息，为空时从最新一条开始
+     */
+    MessageHistoryVO loadHistory(TokenUserInfoDto tokenUserInfoDto, String contactId, Long beforeSeq, Integer limit);
 }
\ No newline at end of file
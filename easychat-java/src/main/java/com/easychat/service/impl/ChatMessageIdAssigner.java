@@ -0,0 +1,32 @@
+package com.easychat.service.impl;
+
+import com.easychat.entity.po.ChatMessage;
+import com.easychat.utils.SnowflakeIdGenerator;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.Resource;
+
+/**
+ * 聊天消息入库前分配消息id和会话内序号，所有写chat_message的地方都要经过这里
+ */
+@Component("chatMessageIdAssigner")
+public class ChatMessageIdAssigner {
+
+    @Resource
+    private SnowflakeIdGenerator snowflakeIdGenerator;
+
+    @Resource
+    private ChatSessionSeqGenerator chatSessionSeqGenerator;
+
+    /**
+     * 已经分配过的不再分配，需要先设置sessionId
+     */
+    public void assign(ChatMessage chatMessage) {
+        if (chatMessage.getMessageId() == null) {
+            chatMessage.setMessageId(snowflakeIdGenerator.nextId());
+        }
+        if (chatMessage.getSeq() == null && chatMessage.getSessionId() != null) {
+            chatMessage.setSeq(chatSessionSeqGenerator.nextSeq(chatMessage.getSessionId()));
+        }
+    }
+}
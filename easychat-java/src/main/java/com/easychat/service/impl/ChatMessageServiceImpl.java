@@ -13,6 +13,7 @@ import com.easychat.entity.query.ChatMessageQuery;
 import com.easychat.entity.query.ChatSessionQuery;
 import com.easychat.entity.query.SimplePage;
 import com.easychat.entity.query.UserContactQuery;
+import com.easychat.entity.vo.MessageHistoryVO;
 import com.easychat.entity.vo.PaginationResultVO;
 import com.easychat.exception.BusinessException;
 import com.easychat.mappers.ChatMessageMapper;
@@ -33,6 +34,7 @@ import org.springframework.web.multipart.MultipartFile;
 
 import jakarta.annotation.Resource;
 import java.io.File;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -48,6 +50,9 @@ public class ChatMessageServiceImpl implements ChatMessageService {
     @Resource
     private ChatMessageMapper<ChatMessage, ChatMessageQuery> chatMessageMapper;
 
+    @Resource
+    private ChatMessageIdAssigner chatMessageIdAssigner;
+
     @Resource
     private ChatSessionMapper<ChatSession, ChatSessionQuery> chatSessionMapper;
 
@@ -66,6 +71,12 @@ public class ChatMessageServiceImpl implements ChatMessageService {
     @Resource
     private AiChatService aiChatService;
 
+    @Resource
+    private ChatMessageWriteBehind chatMessageWriteBehind;
+
+    @Resource
+    private ChatSessionLastMessageUpdater chatSessionLastMessageUpdater;
+
     /**
      * 根据条件查询列表
      */
@@ -102,6 +113,7 @@ public class ChatMessageServiceImpl implements ChatMessageService {
      */
     @Override
     public Integer add(ChatMessage bean) {
+        chatMessageIdAssigner.assign(bean);
         return this.chatMessageMapper.insert(bean);
     }
 
@@ -113,6 +125,9 @@ public class ChatMessageServiceImpl implements ChatMessageService {
         if (listBean == null || listBean.isEmpty()) {
             return 0;
         }
+        for (ChatMessage bean : listBean) {
+            chatMessageIdAssigner.assign(bean);
+        }
         return this.chatMessageMapper.insertBatch(listBean);
     }
 
@@ -214,7 +229,7 @@ public class ChatMessageServiceImpl implements ChatMessageService {
             lastMessage = chatSession.getLastMessage();
             //如果是媒体文件
             chatSession.setLastReceiveTime(curTime);
-            chatSessionMapper.updateBySessionId(chatSession, sessionId);
+            chatSessionLastMessageUpdater.update(sessionId, chatSession.getLastMessage(), chatSession.getLastReceiveTime());
             //记录消息消息表
             chatMessage.setSessionId(sessionId);
             chatMessage.setSendUserId(sendUserId);
@@ -222,7 +237,8 @@ public class ChatMessageServiceImpl implements ChatMessageService {
             chatMessage.setSendTime(curTime);
             chatMessage.setContactType(contactTypeEnum.getType());
             chatMessage.setStatus(status);
-            chatMessageMapper.insert(chatMessage);
+            chatMessageIdAssigner.assign(chatMessage);
+            chatMessageWriteBehind.insert(chatMessage);
         }
         MessageSendDto messageSend = CopyTools.copy(chatMessage, MessageSendDto.class);
         if (Constants.ROBOT_UID.equals(contactId)) {
@@ -360,4 +376,43 @@ public class ChatMessageServiceImpl implements ChatMessageService {
         }
         return file;
     }
-}
\ No newline at end of file
+
+    @Override
+    public MessageHistoryVO loadHistory(TokenUserInfoDto tokenUserInfoDto, String contactId, Long beforeSeq, Integer limit) {
+        UserContactTypeEnum contactTypeEnum = UserContactTypeEnum.getByPrefix(contactId);
+        if (contactTypeEnum == null) {
+            throw new BusinessException(ResponseCodeEnum.CODE_600);
+        }
+        String sessionId;
+        if (UserContactTypeEnum.USER == contactTypeEnum) {
+            sessionId = StringTools.getChatSessionId4User(new String[]{tokenUserInfoDto.getUserId(), contactId});
+        } else {
+            UserContactQuery userContactQuery = new UserContactQuery();
+            userContactQuery.setUserId(tokenUserInfoDto.getUserId());
+            userContactQuery.setContactType(UserContactTypeEnum.GROUP.getType());
+            userContactQuery.setContactId(contactId);
+            userContactQuery.setStatus(UserContactStatusEnum.FRIEND.getStatus());
+            Integer contactCount = userContactMapper.selectCount(userContactQuery);
+            if (contactCount == 0) {
+                throw new BusinessException(ResponseCodeEnum.CODE_600);
+            }
+            sessionId = StringTools.getChatSessionId4Group(contactId);
+        }
+        if (limit == null || limit <= 0) {
+            limit = Constants.LENGTH_20;
+        }
+        limit = Math.min(limit, Constants.MESSAGE_HISTORY_MAX_LIMIT);
+        //多取一条判断是否还有更早的消息，不查总数
+        List<ChatMessage> messageList = chatMessageMapper.selectBySessionIdBeforeSeq(sessionId, beforeSeq, limit + 1);
+        boolean hasMore = messageList.size() > limit;
+        if (hasMore) {
+            messageList = messageList.subList(0, limit);
+        }
+        Collections.reverse(messageList);
+        MessageHistoryVO historyVO = new MessageHistoryVO();
+        historyVO.setList(messageList);
+        historyVO.setHasMore(hasMore);
+        historyVO.setNextBeforeSeq(messageList.isEmpty() ? null : messageList.get(0).getSeq());
+        return historyVO;
+    }
+}
@@ -0,0 +1,294 @@
+package com.easychat.service.impl;
+
+import com.easychat.entity.config.AppConfig;
+import com.easychat.entity.po.ChatMessage;
+import com.easychat.entity.query.ChatMessageQuery;
+import com.easychat.exception.BusinessException;
+import com.easychat.mappers.ChatMessageMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 聊天消息合并写入，窗口期内或攒够一批后用insertBatch一次写入
+ * 调用方等待所在批次提交后才返回，拿到的messageId已经落库
+ * 批量写入失败时逐条重试，单条失败不影响同批其他消息
+ * 等待超时的消息由调用方取消，写入线程跳过；写入线程已经取走的消息不能取消，调用方继续等待写入结果
+ */
+@Component("chatMessageWriteBehind")
+public class ChatMessageWriteBehind {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatMessageWriteBehind.class);
+
+    /**
+     * 批量大小分布，第i个桶统计大小不超过2^i的批次
+     */
+    private static final int HISTOGRAM_BUCKETS = 11;
+
+    @Resource
+    private AppConfig appConfig;
+
+    @Resource
+    private ChatMessageMapper<ChatMessage, ChatMessageQuery> chatMessageMapper;
+
+    private LinkedBlockingQueue<PendingMessage> queue;
+
+    private Thread[] writers;
+
+    private volatile boolean running;
+
+    private final LongAdder flushCount = new LongAdder();
+
+    private final LongAdder rowCount = new LongAdder();
+
+    private final LongAdder flushNanos = new LongAdder();
+
+    private final LongAdder retryCount = new LongAdder();
+
+    private final LongAdder failCount = new LongAdder();
+
+    private final LongAdder callerRunsCount = new LongAdder();
+
+    private final LongAdder cancelCount = new LongAdder();
+
+    private volatile long maxFlushNanos;
+
+    private final LongAdder[] histogram = new LongAdder[HISTOGRAM_BUCKETS];
+
+    private static final int STATE_WAITING = 0;
+
+    private static final int STATE_WRITING = 1;
+
+    private static final int STATE_CANCELLED = 2;
+
+    private static final class PendingMessage {
+        private final ChatMessage chatMessage;
+        private final CompletableFuture<ChatMessage> future = new CompletableFuture<>();
+        //调用方超时取消和写入线程取走只有一方成功
+        private final AtomicInteger state = new AtomicInteger(STATE_WAITING);
+
+        private PendingMessage(ChatMessage chatMessage) {
+            this.chatMessage = chatMessage;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            histogram[i] = new LongAdder();
+        }
+        if (!isEnabled()) {
+            return;
+        }
+        queue = new LinkedBlockingQueue<>(appConfig.getChatMessageWriteBehindQueueCapacity());
+        int threads = Math.max(1, appConfig.getChatMessageWriteBehindThreads());
+        writers = new Thread[threads];
+        running = true;
+        for (int i = 0; i < threads; i++) {
+            writers[i] = new Thread(this::writeLoop, "chat-message-writer-" + i);
+            writers[i].setDaemon(true);
+            writers[i].start();
+        }
+        logger.info("消息合并写入启动,窗口:{}ms,单批最多:{}条,写入线程数:{}", appConfig.getChatMessageWriteBehindWindowMs(),
+                appConfig.getChatMessageWriteBehindMaxBatch(), threads);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        for (Thread writer : writers) {
+            writer.interrupt();
+        }
+        for (Thread writer : writers) {
+            try {
+                writer.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        //写入线程退出后剩下的消息直接写完
+        List<PendingMessage> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) {
+            flush(rest);
+        }
+    }
+
+    private boolean isEnabled() {
+        return appConfig.getChatMessageWriteBehindWindowMs() > 0;
+    }
+
+    /**
+     * 写入消息，返回时消息已提交，chatMessage需要已经分配messageId
+     */
+    public void insert(ChatMessage chatMessage) {
+        if (!running) {
+            chatMessageMapper.insert(chatMessage);
+            return;
+        }
+        PendingMessage pending = new PendingMessage(chatMessage);
+        if (!queue.offer(pending)) {
+            //队列满说明数据库已经跟不上，由调用线程直接写入
+            callerRunsCount.increment();
+            chatMessageMapper.insert(chatMessage);
+            return;
+        }
+        try {
+            try {
+                pending.future.get(appConfig.getChatMessageWriteBehindTimeoutMs(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (pending.state.compareAndSet(STATE_WAITING, STATE_CANCELLED)) {
+                    //取消成功，写入线程不会再写这条消息
+                    cancelCount.increment();
+                    logger.error("消息保存超时,sessionId:{}", chatMessage.getSessionId());
+                    throw new BusinessException("消息保存超时");
+                }
+                //写入线程已经取走，正在提交，等待结果
+                pending.future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new BusinessException("消息保存失败", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (pending.state.compareAndSet(STATE_WAITING, STATE_CANCELLED)) {
+                cancelCount.increment();
+                throw new BusinessException("消息保存被中断");
+            }
+            try {
+                pending.future.join();
+            } catch (CompletionException ce) {
+                throw new BusinessException("消息保存失败", ce.getCause());
+            }
+        }
+    }
+
+    private void writeLoop() {
+        int maxBatch = appConfig.getChatMessageWriteBehindMaxBatch();
+        long windowNanos = TimeUnit.MILLISECONDS.toNanos(appConfig.getChatMessageWriteBehindWindowMs());
+        List<PendingMessage> batch = new ArrayList<>(maxBatch);
+        while (running) {
+            try {
+                PendingMessage first = queue.take();
+                batch.add(first);
+                //从第一条消息开始计算窗口，攒够一批提前写入
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch) {
+                    queue.drainTo(batch, maxBatch - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatch || remaining <= 0) {
+                        break;
+                    }
+                    PendingMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                if (!running) {
+                    //已经取出的消息写完再退出
+                    if (!batch.isEmpty()) {
+                        flush(batch);
+                    }
+                    return;
+                }
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch = new ArrayList<>(maxBatch);
+            }
+        }
+    }
+
+    private void flush(List<PendingMessage> pendingList) {
+        long start = System.nanoTime();
+        //跳过调用方已经取消的消息
+        List<PendingMessage> batch = new ArrayList<>(pendingList.size());
+        List<ChatMessage> messageList = new ArrayList<>(pendingList.size());
+        for (PendingMessage pending : pendingList) {
+            if (pending.state.compareAndSet(STATE_WAITING, STATE_WRITING)) {
+                batch.add(pending);
+                messageList.add(pending.chatMessage);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            chatMessageMapper.insertBatch(messageList);
+            record(batch.size(), System.nanoTime() - start);
+            for (PendingMessage pending : batch) {
+                pending.future.complete(pending.chatMessage);
+            }
+            return;
+        } catch (Exception e) {
+            logger.error("批量保存消息失败,消息数:{},改为逐条写入", batch.size(), e);
+        }
+        for (PendingMessage pending : batch) {
+            retryCount.increment();
+            try {
+                chatMessageMapper.insert(pending.chatMessage);
+                pending.future.complete(pending.chatMessage);
+            } catch (Exception e) {
+                failCount.increment();
+                pending.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void record(int size, long nanos) {
+        flushCount.increment();
+        rowCount.add(size);
+        flushNanos.add(nanos);
+        if (nanos > maxFlushNanos) {
+            maxFlushNanos = nanos;
+        }
+        int bucket = 32 - Integer.numberOfLeadingZeros(size - 1);
+        histogram[Math.min(bucket, HISTOGRAM_BUCKETS - 1)].increment();
+    }
+
+    public Map<String, Object> getStats() {
+        long flushes = flushCount.sum();
+        long rows = rowCount.sum();
+        Map<String, Object> sizeHistogram = new LinkedHashMap<>();
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            sizeHistogram.put(i == HISTOGRAM_BUCKETS - 1 ? ">" + (1 << (i - 1)) : "<=" + (1 << i), histogram[i].sum());
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", running);
+        stats.put("windowMs", appConfig.getChatMessageWriteBehindWindowMs());
+        stats.put("maxBatch", appConfig.getChatMessageWriteBehindMaxBatch());
+        stats.put("queued", queue == null ? 0 : queue.size());
+        stats.put("flushes", flushes);
+        stats.put("rows", rows);
+        stats.put("avgBatchSize", flushes > 0 ? (double) rows / flushes : 0D);
+        stats.put("avgFlushMillis", flushes > 0 ? flushNanos.sum() / 1e6 / flushes : 0D);
+        stats.put("maxFlushMillis", maxFlushNanos / 1e6);
+        stats.put("retried", retryCount.sum());
+        stats.put("failed", failCount.sum());
+        stats.put("callerRuns", callerRunsCount.sum());
+        stats.put("cancelled", cancelCount.sum());
+        stats.put("batchSizeHistogram", sizeHistogram);
+        return stats;
+    }
+}
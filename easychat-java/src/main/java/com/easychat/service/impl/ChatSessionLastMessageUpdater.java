@@ -0,0 +1,211 @@
+package com.easychat.service.impl;
+
+import com.easychat.entity.config.AppConfig;
+import com.easychat.entity.po.ChatSession;
+import com.easychat.entity.po.ChatSessionUser;
+import com.easychat.entity.query.ChatSessionQuery;
+import com.easychat.mappers.ChatSessionMapper;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 会话最后一条消息合并更新，每个会话只保留最新的值，定时用一条语句批量写入
+ * 活跃群聊每条消息都更新同一行，逐条update会集中在一行锁上
+ * 写入前和写入中的值查询时覆盖到结果上；sql中按last_receive_time判断，较旧的值不会覆盖较新的值
+ */
+@Component("chatSessionLastMessageUpdater")
+public class ChatSessionLastMessageUpdater {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatSessionLastMessageUpdater.class);
+
+    @Resource
+    private AppConfig appConfig;
+
+    @Resource
+    private ChatSessionMapper<ChatSession, ChatSessionQuery> chatSessionMapper;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * 待写入
+     */
+    private final ConcurrentMap<String, ChatSession> pendingMap = new ConcurrentHashMap<>();
+
+    /**
+     * 正在写入，提交前查询仍然要看到
+     */
+    private final ConcurrentMap<String, ChatSession> flushingMap = new ConcurrentHashMap<>();
+
+    private final LongAdder updateCount = new LongAdder();
+
+    private final LongAdder flushCount = new LongAdder();
+
+    private final LongAdder rowCount = new LongAdder();
+
+    private final LongAdder flushNanos = new LongAdder();
+
+    private final LongAdder failCount = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        int windowMs = appConfig.getChatSessionUpdateWindowMs();
+        if (windowMs <= 0) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("chat-session-update", true));
+        executor.scheduleWithFixedDelay(this::flush, windowMs, windowMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * 更新会话最后一条消息
+     */
+    public void update(String sessionId, String lastMessage, Long lastReceiveTime) {
+        ChatSession chatSession = new ChatSession();
+        chatSession.setSessionId(sessionId);
+        chatSession.setLastMessage(lastMessage);
+        chatSession.setLastReceiveTime(lastReceiveTime);
+        if (executor == null) {
+            chatSessionMapper.updateBySessionId(chatSession, sessionId);
+            return;
+        }
+        updateCount.increment();
+        pendingMap.merge(sessionId, chatSession, ChatSessionLastMessageUpdater::newer);
+    }
+
+    private static ChatSession newer(ChatSession oldValue, ChatSession newValue) {
+        return newValue.getLastReceiveTime() >= oldValue.getLastReceiveTime() ? newValue : oldValue;
+    }
+
+    private synchronized void flush() {
+        if (pendingMap.isEmpty()) {
+            return;
+        }
+        List<ChatSession> sessionList = new ArrayList<>();
+        for (String sessionId : pendingMap.keySet()) {
+            //先放入写入中再从待写入移除，查询时不会两边都找不到
+            ChatSession chatSession = pendingMap.get(sessionId);
+            if (chatSession == null) {
+                continue;
+            }
+            flushingMap.put(sessionId, chatSession);
+            pendingMap.remove(sessionId, chatSession);
+            sessionList.add(chatSession);
+        }
+        int batchSize = appConfig.getChatSessionUpdateMaxBatch();
+        for (int i = 0; i < sessionList.size(); i += batchSize) {
+            List<ChatSession> batch = sessionList.subList(i, Math.min(i + batchSize, sessionList.size()));
+            long start = System.nanoTime();
+            try {
+                chatSessionMapper.updateLastMessageBatch(batch);
+                flushCount.increment();
+                rowCount.add(batch.size());
+                flushNanos.add(System.nanoTime() - start);
+            } catch (Exception e) {
+                //放回待写入，下次再写
+                failCount.increment();
+                logger.error("批量更新会话最后消息失败,会话数:{}", batch.size(), e);
+                for (ChatSession chatSession : batch) {
+                    pendingMap.merge(chatSession.getSessionId(), chatSession, ChatSessionLastMessageUpdater::newer);
+                }
+            }
+            for (ChatSession chatSession : batch) {
+                flushingMap.remove(chatSession.getSessionId(), chatSession);
+            }
+        }
+    }
+
+    /**
+     * 还没有写入数据库的最新值
+     */
+    public ChatSession getPending(String sessionId) {
+        ChatSession pending = pendingMap.get(sessionId);
+        ChatSession flushing = flushingMap.get(sessionId);
+        if (pending == null) {
+            return flushing;
+        }
+        return flushing == null ? pending : newer(flushing, pending);
+    }
+
+    public void apply(ChatSession chatSession) {
+        if (chatSession == null || executor == null) {
+            return;
+        }
+        ChatSession pending = getPending(chatSession.getSessionId());
+        if (pending != null && isNewer(pending, chatSession.getLastReceiveTime())) {
+            chatSession.setLastMessage(pending.getLastMessage());
+            chatSession.setLastReceiveTime(pending.getLastReceiveTime());
+        }
+    }
+
+    /**
+     * 用未写入的值覆盖查询结果
+     *
+     * @return 是否有覆盖，按最后消息时间排序的结果需要重新排序
+     */
+    public boolean apply(List<ChatSessionUser> sessionUserList) {
+        if (sessionUserList == null || executor == null || (pendingMap.isEmpty() && flushingMap.isEmpty())) {
+            return false;
+        }
+        boolean changed = false;
+        for (ChatSessionUser sessionUser : sessionUserList) {
+            ChatSession pending = getPending(sessionUser.getSessionId());
+            if (pending != null && isNewer(pending, sessionUser.getLastReceiveTime())) {
+                sessionUser.setLastMessage(pending.getLastMessage());
+                sessionUser.setLastReceiveTime(pending.getLastReceiveTime());
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static boolean isNewer(ChatSession pending, Long lastReceiveTime) {
+        return lastReceiveTime == null || pending.getLastReceiveTime() >= lastReceiveTime;
+    }
+
+    public Map<String, Object> getStats() {
+        long flushes = flushCount.sum();
+        long rows = rowCount.sum();
+        long updates = updateCount.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", executor != null);
+        stats.put("windowMs", appConfig.getChatSessionUpdateWindowMs());
+        stats.put("pending", pendingMap.size());
+        stats.put("updates", updates);
+        stats.put("flushes", flushes);
+        stats.put("rows", rows);
+        stats.put("coalesceRatio", rows > 0 ? (double) updates / rows : 0D);
+        stats.put("avgFlushMillis", flushes > 0 ? flushNanos.sum() / 1e6 / flushes : 0D);
+        stats.put("failed", failCount.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,55 @@
+package com.easychat.service.impl;
+
+import com.easychat.entity.constants.Constants;
+import com.easychat.entity.po.ChatMessage;
+import com.easychat.entity.query.ChatMessageQuery;
+import com.easychat.mappers.ChatMessageMapper;
+import org.redisson.api.RAtomicLong;
+import org.redisson.api.RScript;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.Resource;
+import java.util.Collections;
+
+/**
+ * 会话内消息序号，redis中每个会话一个计数器，多节点共用
+ * 计数器不存在(新会话或redis数据丢失)时从数据库中最大序号继续
+ * 客户端按序号分页拉取历史消息，序号不连续说明中间有消息没收到
+ */
+@Component("chatSessionSeqGenerator")
+public class ChatSessionSeqGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatSessionSeqGenerator.class);
+
+    /**
+     * 计数器存在时递增，不存在时返回空，由调用方初始化
+     */
+    private static final String INCR_IF_EXISTS_SCRIPT = "if redis.call('exists', KEYS[1]) == 0 then return nil end "
+            + "return redis.call('incr', KEYS[1])";
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private ChatMessageMapper<ChatMessage, ChatMessageQuery> chatMessageMapper;
+
+    public long nextSeq(String sessionId) {
+        String key = Constants.REDIS_KEY_SESSION_SEQ + sessionId;
+        Long seq = redissonClient.getScript(StringCodec.INSTANCE).eval(RScript.Mode.READ_WRITE, INCR_IF_EXISTS_SCRIPT,
+                RScript.ReturnType.INTEGER, Collections.singletonList(key));
+        if (seq != null) {
+            return seq;
+        }
+        //计数器不存在，先用数据库中最大序号初始化再递增；并发初始化只有一个生效，其他调用方都在其后递增
+        RAtomicLong counter = redissonClient.getAtomicLong(key);
+        Long maxSeq = chatMessageMapper.selectMaxSeq(sessionId);
+        if (maxSeq != null && maxSeq > 0 && counter.compareAndSet(0, maxSeq)) {
+            logger.warn("会话序号计数器不存在,从数据库最大序号继续,sessionId:{},maxSeq:{}", sessionId, maxSeq);
+        }
+        return counter.incrementAndGet();
+    }
+}
@@ -23,6 +23,9 @@ public class ChatSessionServiceImpl implements ChatSessionService {
     @Resource
     private ChatSessionMapper<ChatSession, ChatSessionQuery> chatSessionMapper;
 
+    @Resource
+    private ChatSessionLastMessageUpdater chatSessionLastMessageUpdater;
+
     /**
      * 根据条件查询列表
      */
@@ -107,7 +110,9 @@ public class ChatSessionServiceImpl implements ChatSessionService {
      */
     @Override
     public ChatSession getChatSessionBySessionId(String sessionId) {
-        return this.chatSessionMapper.selectBySessionId(sessionId);
+        ChatSession chatSession = this.chatSessionMapper.selectBySessionId(sessionId);
+        chatSessionLastMessageUpdater.apply(chatSession);
+        return chatSession;
     }
 
     /**
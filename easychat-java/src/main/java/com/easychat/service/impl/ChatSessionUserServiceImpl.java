@@ -34,6 +34,9 @@ public class ChatSessionUserServiceImpl implements ChatSessionUserService {
     @Resource
     private MessageHandler messageHandler;
 
+    @Resource
+    private ChatSessionLastMessageUpdater chatSessionLastMessageUpdater;
+
     @Resource
     private UserContactMapper<UserContact, UserContactQuery> userContactMapper;
 
@@ -42,7 +45,9 @@ public class ChatSessionUserServiceImpl implements ChatSessionUserService {
      */
     @Override
     public List<ChatSessionUser> findListByParam(ChatSessionUserQuery param) {
-        return this.chatSessionUserMapper.selectList(param);
+        List<ChatSessionUser> list = this.chatSessionUserMapper.selectList(param);
+        chatSessionLastMessageUpdater.apply(list);
+        return list;
     }
 
     /**
@@ -68,6 +68,9 @@ public class GroupInfoServiceImpl implements GroupInfoService {
     @Resource
     private ChatMessageMapper<ChatMessage, ChatMessageQuery> chatMessageMapper;
 
+    @Resource
+    private ChatMessageIdAssigner chatMessageIdAssigner;
+
     @Resource
     private UserInfoMapper<UserInfo, UserInfoQuery> userInfoMapper;
 
@@ -244,6 +247,7 @@ public class GroupInfoServiceImpl implements GroupInfoService {
             chatMessage.setContactId(groupInfo.getGroupId());
             chatMessage.setContactType(UserContactTypeEnum.GROUP.getType());
             chatMessage.setStatus(MessageStatusEnum.SENDED.getStatus());
+            chatMessageIdAssigner.assign(chatMessage);
             chatMessageMapper.insert(chatMessage);
             //发送WS消息
             chatSessionUser.setLastMessage(MessageTypeEnum.GROUP_CREATE.getInitMessage());
@@ -327,6 +331,7 @@ public class GroupInfoServiceImpl implements GroupInfoService {
         chatMessage.setMessageType(MessageTypeEnum.DISSOLUTION_GROUP.getType());
         chatMessage.setContactId(groupId);
         chatMessage.setMessageContent(messageContent);
+        chatMessageIdAssigner.assign(chatMessage);
         chatMessageMapper.insert(chatMessage);
         //发送解散群消息
         MessageSendDto messageSendDto = CopyTools.copy(chatMessage, MessageSendDto.class);
@@ -368,6 +373,7 @@ public class GroupInfoServiceImpl implements GroupInfoService {
         chatMessage.setMessageType(messageTypeEnum.getType());
         chatMessage.setContactId(groupId);
         chatMessage.setMessageContent(messageContent);
+        chatMessageIdAssigner.assign(chatMessage);
         chatMessageMapper.insert(chatMessage);
 
         UserContactQuery userContactQuery = new UserContactQuery();
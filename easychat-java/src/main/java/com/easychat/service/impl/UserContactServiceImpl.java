@@ -51,6 +51,9 @@ public class UserContactServiceImpl implements UserContactService {
     @Resource
     private ChatMessageMapper<ChatMessage, ChatMessageQuery> chatMessageMapper;
 
+    @Resource
+    private ChatMessageIdAssigner chatMessageIdAssigner;
+
     @Resource
     private MessageHandler messageHandler;
 
@@ -298,6 +301,7 @@ public class UserContactServiceImpl implements UserContactService {
             chatMessage.setContactId(contactId);
             chatMessage.setContactType(UserContactTypeEnum.USER.getType());
             chatMessage.setStatus(MessageStatusEnum.SENDED.getStatus());
+            chatMessageIdAssigner.assign(chatMessage);
             chatMessageMapper.insert(chatMessage);
 
             MessageSendDto messageSendDto = CopyTools.copy(chatMessage, MessageSendDto.class);
@@ -352,6 +356,7 @@ public class UserContactServiceImpl implements UserContactService {
             chatMessage.setContactId(contactId);
             chatMessage.setContactType(UserContactTypeEnum.GROUP.getType());
             chatMessage.setStatus(MessageStatusEnum.SENDED.getStatus());
+            chatMessageIdAssigner.assign(chatMessage);
             chatMessageMapper.insert(chatMessage);
 
             //发送群消息
@@ -448,6 +453,7 @@ public class UserContactServiceImpl implements UserContactService {
         chatMessage.setContactId(userId);
         chatMessage.setContactType(UserContactTypeEnum.USER.getType());
         chatMessage.setStatus(MessageStatusEnum.SENDED.getStatus());
+        chatMessageIdAssigner.assign(chatMessage);
         chatMessageMapper.insert(chatMessage);
     }
 }
\ No newline at end of file
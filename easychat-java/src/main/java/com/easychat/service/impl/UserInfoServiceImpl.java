@@ -255,11 +255,8 @@ public class UserInfoServiceImpl implements UserInfoService {
             redisComponet.addUserContactBatch(userInfo.getUserId(), contactIdList);
         }
 
+        //支持多设备同时在线，不再因为已有心跳拒绝登录
         TokenUserInfoDto tokenUserInfoDto = getTokenUserInfoDto(userInfo);
-        Long lastHeartBeat = redisComponet.getUserHeartBeat(tokenUserInfoDto.getUserId());
-        if (lastHeartBeat != null) {
-            throw new BusinessException("此账号已经在别处登录，请退出后再登录");
-        }
 
         //保存登录信息到redis中
         String token = StringTools.encodeByMD5(tokenUserInfoDto.getUserId() + StringTools.getRandomString(Constants.LENGTH_20));
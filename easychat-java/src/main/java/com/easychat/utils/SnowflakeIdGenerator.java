@@ -0,0 +1,202 @@
+package com.easychat.utils;
+
+import com.easychat.entity.config.AppConfig;
+import com.easychat.entity.constants.Constants;
+import com.easychat.exception.BusinessException;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.redisson.api.RBucket;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息id生成，按时间递增，不依赖数据库自增
+ * 41位毫秒时间戳(自2024-01-01) + 5位节点号 + 7位序列号，共53位，前端js Number可以精确表示
+ * 节点号配置chat.message.id.worker-id，为-1时从redis租用一个空闲的节点号；
+ * 租约过期或节点号被其他节点占用时停止生成，续期时重新租用节点号后恢复
+ * 时钟回拨时沿用上次的时间戳继续递增序列号，同一节点生成的id始终递增
+ */
+@Component("snowflakeIdGenerator")
+public class SnowflakeIdGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnowflakeIdGenerator.class);
+
+    private static final long EPOCH = 1704067200000L;
+
+    private static final int WORKER_BITS = 5;
+
+    private static final int SEQUENCE_BITS = 7;
+
+    public static final int MAX_WORKER_ID = (1 << WORKER_BITS) - 1;
+
+    private static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+
+    /**
+     * 节点号租约时间(秒)，每1/3租约时间续期一次
+     */
+    private static final long LEASE_SECONDS = 60;
+
+    @Resource
+    private AppConfig appConfig;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    private long workerId;
+
+    private long lastTimestamp = -1;
+
+    /**
+     * 上次读到的系统时间，借用下一毫秒后lastTimestamp会超前，不能用来判断时钟回拨
+     */
+    private long lastWallTime = -1;
+
+    private long sequence;
+
+    private long backwardCount;
+
+    private String leaseToken;
+
+    /**
+     * 租约到期时间，续期成功后延长，之后不能再用这个节点号
+     */
+    private volatile long leaseExpireTime;
+
+    private ScheduledExecutorService leaseExecutor;
+
+    @PostConstruct
+    public void init() {
+        int configWorkerId = appConfig.getChatMessageIdWorkerId();
+        if (configWorkerId > MAX_WORKER_ID) {
+            throw new IllegalStateException("chat.message.id.worker-id 不能大于" + MAX_WORKER_ID);
+        }
+        if (configWorkerId >= 0) {
+            workerId = configWorkerId;
+        } else {
+            workerId = leaseWorkerId();
+            leaseExpireTime = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(LEASE_SECONDS);
+            leaseExecutor = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("id-worker-lease", true));
+            leaseExecutor.scheduleWithFixedDelay(this::renewLease, LEASE_SECONDS / 3, LEASE_SECONDS / 3, TimeUnit.SECONDS);
+        }
+        logger.info("消息id节点号:{}", workerId);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (leaseExecutor == null) {
+            return;
+        }
+        leaseExecutor.shutdown();
+        RBucket<String> bucket = leaseBucket(workerId);
+        if (leaseToken.equals(bucket.get())) {
+            bucket.delete();
+        }
+    }
+
+    public synchronized long nextId() {
+        long now = System.currentTimeMillis();
+        if (leaseExecutor != null && now >= leaseExpireTime) {
+            //租约已失效，节点号可能已被其他节点使用
+            throw new BusinessException("消息id节点号租约已失效");
+        }
+        long timestamp = now - EPOCH;
+        if (timestamp < lastWallTime) {
+            backwardCount++;
+        }
+        lastWallTime = timestamp;
+        if (timestamp < lastTimestamp) {
+            //时钟回拨或借用了下一毫秒，沿用上次的时间戳
+            timestamp = lastTimestamp;
+        }
+        if (timestamp == lastTimestamp) {
+            sequence = (sequence + 1) & MAX_SEQUENCE;
+            if (sequence == 0) {
+                //本毫秒序列号用完，借用下一毫秒
+                timestamp = lastTimestamp + 1;
+            }
+        } else {
+            sequence = 0;
+        }
+        lastTimestamp = timestamp;
+        return (timestamp << (WORKER_BITS + SEQUENCE_BITS)) | (workerId << SEQUENCE_BITS) | sequence;
+    }
+
+    /**
+     * id中的时间戳(毫秒)
+     */
+    public static long getTimestamp(long id) {
+        return (id >>> (WORKER_BITS + SEQUENCE_BITS)) + EPOCH;
+    }
+
+    /**
+     * 指定时间生成的最小id，用于按时间范围查询
+     */
+    public static long minIdOf(long timestamp) {
+        return Math.max(0, timestamp - EPOCH) << (WORKER_BITS + SEQUENCE_BITS);
+    }
+
+    private long leaseWorkerId() {
+        leaseToken = StringTools.getRandomString(16);
+        for (int i = 0; i <= MAX_WORKER_ID; i++) {
+            if (leaseBucket(i).setIfAbsent(leaseToken, Duration.ofSeconds(LEASE_SECONDS))) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("没有空闲的消息id节点号，请配置chat.message.id.worker-id");
+    }
+
+    private void renewLease() {
+        try {
+            long renewTime = System.currentTimeMillis();
+            RBucket<String> bucket = leaseBucket(workerId);
+            if (leaseToken.equals(bucket.get())) {
+                bucket.expire(Duration.ofSeconds(LEASE_SECONDS));
+                leaseExpireTime = renewTime + TimeUnit.SECONDS.toMillis(LEASE_SECONDS);
+                return;
+            }
+            //redis中断过，租约已过期，重新占用原节点号
+            if (bucket.setIfAbsent(leaseToken, Duration.ofSeconds(LEASE_SECONDS))) {
+                leaseExpireTime = renewTime + TimeUnit.SECONDS.toMillis(LEASE_SECONDS);
+                logger.warn("消息id节点号租约已过期,重新占用:{}", workerId);
+                return;
+            }
+            //原节点号已被其他节点占用，停止生成并租用新的节点号
+            leaseExpireTime = 0;
+            logger.error("消息id节点号{}已被其他节点占用,重新租用", workerId);
+            long newWorkerId = leaseWorkerId();
+            synchronized (this) {
+                workerId = newWorkerId;
+            }
+            leaseExpireTime = renewTime + TimeUnit.SECONDS.toMillis(LEASE_SECONDS);
+            logger.warn("消息id重新租用节点号:{}", newWorkerId);
+        } catch (Exception e) {
+            logger.error("消息id节点号续期失败", e);
+        }
+    }
+
+    private RBucket<String> leaseBucket(long workerId) {
+        return redissonClient.getBucket(Constants.REDIS_KEY_MESSAGE_ID_WORKER + workerId, StringCodec.INSTANCE);
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("workerId", workerId);
+        stats.put("leased", leaseExecutor != null);
+        stats.put("lastTimestamp", lastTimestamp < 0 ? null : lastTimestamp + EPOCH);
+        stats.put("clockLagMillis", lastTimestamp < 0 ? 0 : Math.max(0, lastTimestamp + EPOCH - System.currentTimeMillis()));
+        stats.put("clockBackward", backwardCount);
+        return stats;
+    }
+}
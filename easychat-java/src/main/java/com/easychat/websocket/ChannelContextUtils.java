@@ -1,6 +1,6 @@
 package com.easychat.websocket;
 
-import com.alibaba.fastjson2.JSON;
+import com.easychat.entity.config.AppConfig;
 import com.easychat.entity.constants.Constants;
 import com.easychat.entity.dto.MessageSendDto;
 import com.easychat.entity.dto.WsInitData;
@@ -11,24 +11,26 @@ import com.easychat.entity.po.*;
 import com.easychat.entity.query.*;
 import com.easychat.mappers.*;
 import com.easychat.redis.RedisComponet;
-import com.easychat.utils.JsonUtils;
+import com.easychat.service.impl.ChatSessionLastMessageUpdater;
 import com.easychat.utils.StringTools;
+import com.easychat.websocket.codec.WsFrameCodec;
+import com.easychat.websocket.netty.WsBackPressure;
 import io.netty.channel.Channel;
-import io.netty.channel.group.ChannelGroup;
-import io.netty.channel.group.DefaultChannelGroup;
-import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
-import io.netty.util.Attribute;
-import io.netty.util.AttributeKey;
-import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import jakarta.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Component("channelContextUtils")
@@ -36,18 +38,37 @@ public class ChannelContextUtils {
 
     private static final Logger logger = LoggerFactory.getLogger(ChannelContextUtils.class);
 
+    /**
+     * 群发模式 连接时不加入群，发送时按成员索引查找本机连接
+     */
+    private static final String GROUP_FANOUT_LAZY = "lazy";
+
+    @Resource
+    private AppConfig appConfig;
+
     @Resource
     private RedisComponet redisComponet;
 
-    public static final ConcurrentMap<String, Channel> USER_CONTEXT_MAP = new ConcurrentHashMap();
+    @Resource
+    private WsBackPressure wsBackPressure;
+
+    @Resource
+    private UserChannelRegistry userChannelRegistry;
+
+    @Resource
+    private GroupChannelRegistry groupChannelRegistry;
 
-    public static final ConcurrentMap<String, ChannelGroup> GROUP_CONTEXT_MAP = new ConcurrentHashMap();
+    @Resource
+    private UserRouteRegistry userRouteRegistry;
+
+    @Resource
+    private GroupMemberIndex groupMemberIndex;
 
     @Resource
     private ChatSessionUserMapper<ChatSessionUser, ChatSessionUserQuery> chatSessionUserMapper;
 
     @Resource
-    private ChatMessageMapper<ChatMessage, ChatMessageQuery> chatMessageMapper;
+    private ChatSessionLastMessageUpdater chatSessionLastMessageUpdater;
 
     @Resource
     private UserInfoMapper<UserInfo, UserInfoQuery> userInfoMapper;
@@ -58,6 +79,15 @@ public class ChannelContextUtils {
     @Resource
     private UserContactApplyMapper<UserContactApply, UserContactApplyQuery> userContactApplyMapper;
 
+    @Resource
+    private WsMessageSync wsMessageSync;
+
+    @Resource
+    private WsResumeBuffer wsResumeBuffer;
+
+    @Resource
+    private UserOfflineInbox userOfflineInbox;
+
     /**
      * 加入通道
      *
@@ -66,24 +96,38 @@ public class ChannelContextUtils {
      */
     public void addContext(String userId, Channel channel) {
         try {
-            String channelId = channel.id().toString();
-            AttributeKey attributeKey = null;
-            if (!AttributeKey.exists(channelId)) {
-                attributeKey = AttributeKey.newInstance(channel.id().toString());
-            } else {
-                attributeKey = AttributeKey.valueOf(channel.id().toString());
+            ConnectionSession session = ConnectionSession.get(channel);
+            if (session == null) {
+                return;
             }
-            channel.attr(attributeKey).set(userId);
-
-            List<String> contactList = redisComponet.getUserContactList(userId);
-            for (String groupId : contactList) {
-                if (groupId.startsWith(UserContactTypeEnum.GROUP.getPrefix())) {
-                    add2Group(groupId, channel);
+            session.setUserId(userId);
+            //同一设备重连或超过最大设备数时关闭旧连接
+            Channel evicted = userChannelRegistry.add(userId, channel);
+            if (evicted != null) {
+                //被替换的连接不再保留断线恢复
+                ConnectionSession evictedSession = ConnectionSession.get(evicted);
+                if (evictedSession != null) {
+                    evictedSession.setResumeToken(null);
+                }
+                evicted.close();
+            }
+            userRouteRegistry.online(userId);
+
+            if (!isLazyGroupFanout()) {
+                List<String> contactList = redisComponet.getUserContactList(userId);
+                for (String groupId : contactList) {
+                    if (groupId.startsWith(UserContactTypeEnum.GROUP.getPrefix())) {
+                        groupChannelRegistry.join(groupId, channel);
+                    }
                 }
             }
-            USER_CONTEXT_MAP.put(userId, channel);
             redisComponet.saveUserHeartBeat(userId);
 
+            //短时间断线重连，只补发断开期间的消息
+            if (resume(userId, channel, session)) {
+                return;
+            }
+
             //更新用户最后连接时间
             UserInfo updateInfo = new UserInfo();
             updateInfo.setLastLoginTime(new Date());
@@ -107,26 +151,20 @@ public class ChannelContextUtils {
             sessionUserQuery.setUserId(userId);
             sessionUserQuery.setOrderBy("last_receive_time desc");
             List<ChatSessionUser> chatSessionList = chatSessionUserMapper.selectList(sessionUserQuery);
+            //合并更新还没写入的最后消息
+            if (chatSessionLastMessageUpdater.apply(chatSessionList)) {
+                chatSessionList.sort(Comparator.comparing(ChatSessionUser::getLastReceiveTime, Comparator.nullsLast(Comparator.reverseOrder())));
+            }
             WsInitData wsInitData = new WsInitData();
             wsInitData.setChatSessionList(chatSessionList);
 
             /**
-             * 2、查询聊天消息
+             * 2、查询聊天消息的接收方
              */
-            //查询用户的联系人
-            UserContactQuery contactQuery = new UserContactQuery();
-            contactQuery.setContactType(UserContactTypeEnum.GROUP.getType());
-            contactQuery.setUserId(userId);
-            List<UserContact> groupContactList = userContactMapper.selectList(contactQuery);
-            List<String> groupIdList = groupContactList.stream().map(item -> item.getContactId()).collect(Collectors.toList());
-            //将自己也加进去
-            groupIdList.add(userId);
-
-            ChatMessageQuery messageQuery = new ChatMessageQuery();
-            messageQuery.setContactIdList(groupIdList);
-            messageQuery.setLastReceiveTime(lastOffTime);
-            List<ChatMessage> chatMessageList = chatMessageMapper.selectList(messageQuery);
-            wsInitData.setChatMessageList(chatMessageList);
+            List<String> groupIdList = getSyncContactIdList(userId);
+
+            //消息不放在初始化帧中，之后分页发送
+            wsInitData.setChatMessageList(new ArrayList<>());
 
             /**
              * 3、查询好友申请
@@ -144,39 +182,166 @@ public class ChannelContextUtils {
             messageSendDto.setContactId(userId);
             messageSendDto.setExtendData(wsInitData);
 
-            sendMsg(messageSendDto, userId);
+            //只发给当前连接的设备
+            convertContact(messageSendDto);
+            channel.writeAndFlush(wsBackPressure.wrap(WsFrameCodec.encode(channel, messageSendDto, true), messageSendDto));
+
+            //客户端带了同步位置时只发送之后的消息
+            Long syncToken = session.getSyncToken();
+            CompletableFuture<Boolean> synced;
+            if (syncToken != null) {
+                synced = wsMessageSync.sync(channel, userId, groupIdList, syncToken);
+            } else {
+                synced = wsMessageSync.syncSince(channel, userId, groupIdList, lastOffTime);
+            }
+            synced.thenAccept(success -> {
+                if (!success) {
+                    return;
+                }
+                //已经上线，离线收件箱不再需要
+                userOfflineInbox.close(userId, groupIdList);
+                //消息全部发出后再发恢复令牌，客户端拿到令牌时之前的消息都已收到
+                sendResumeToken(channel, session);
+            });
         } catch (Exception e) {
             logger.error("初始化链接失败", e);
         }
     }
 
+    /**
+     * 消息的接收方：用户加入的群和自己
+     */
+    private List<String> getSyncContactIdList(String userId) {
+        //查询用户加入的群
+        UserContactQuery contactQuery = new UserContactQuery();
+        contactQuery.setContactType(UserContactTypeEnum.GROUP.getType());
+        contactQuery.setUserId(userId);
+        List<UserContact> groupContactList = userContactMapper.selectList(contactQuery);
+        List<String> groupIdList = groupContactList.stream().map(item -> item.getContactId()).collect(Collectors.toList());
+        //将自己也加进去
+        groupIdList.add(userId);
+        return groupIdList;
+    }
+
+    /**
+     * 补发断开期间保留的消息，新连接已经加入在线表
+     * 服务端发现连接断开之前(最长为心跳超时时间)的推送写进了已经断开的连接，断开前一个心跳周期内还收到过客户端数据时不查询数据库，
+     * 否则先从客户端的同步位置补齐到开始保留为止，再补发保留的消息，客户端按从旧到新收到
+     *
+     * @return 是否恢复成功，失败时完整初始化
+     */
+    private boolean resume(String userId, Channel channel, ConnectionSession session) {
+        //没有同步位置时无法补齐，完整初始化
+        if (session.getResumeFrom() == null || session.getSyncToken() == null) {
+            return false;
+        }
+        WsResumeBuffer.Replay replay = wsResumeBuffer.resume(session.getResumeFrom(), userId);
+        if (replay == null) {
+            return false;
+        }
+        if (replay.getOpenTime() - replay.getActiveTime() <= appConfig.getWsHeartbeatIntervalMs()) {
+            writeReplay(channel, replay);
+            sendResumeToken(channel, session);
+            return true;
+        }
+        wsMessageSync.syncUntil(channel, userId, getSyncContactIdList(userId), session.getSyncToken(), replay.getOpenTime())
+                .thenAccept(success -> {
+                    if (success) {
+                        writeReplay(channel, replay);
+                        sendResumeToken(channel, session);
+                    }
+                });
+        return true;
+    }
+
+    private void writeReplay(Channel channel, WsResumeBuffer.Replay replay) {
+        for (MessageSendDto messageSendDto : replay.getFrames()) {
+            channel.write(wsBackPressure.wrap(WsFrameCodec.encode(channel, messageSendDto, true), messageSendDto));
+        }
+        channel.flush();
+    }
+
+    private void sendResumeToken(Channel channel, ConnectionSession session) {
+        String resumeToken = wsResumeBuffer.newToken();
+        if (resumeToken == null) {
+            return;
+        }
+        session.setResumeToken(resumeToken);
+        MessageSendDto messageSendDto = new MessageSendDto();
+        messageSendDto.setMessageType(MessageTypeEnum.RESUME.getType());
+        messageSendDto.setExtendData(resumeToken);
+        channel.writeAndFlush(wsBackPressure.wrap(WsFrameCodec.encode(channel, messageSendDto, true), messageSendDto));
+    }
+
     /**
      * 删除通道连接异常
      *
      * @param channel
      */
     public void removeContext(Channel channel) {
-        Attribute<String> attribute = channel.attr(AttributeKey.valueOf(channel.id().toString()));
-        String userId = attribute.get();
-        if (!StringTools.isEmpty(userId)) {
-            USER_CONTEXT_MAP.remove(userId);
+        ConnectionSession session = ConnectionSession.get(channel);
+        String userId = session == null ? null : session.getUserId();
+        if (StringTools.isEmpty(userId)) {
+            return;
+        }
+        long offTime = System.currentTimeMillis();
+        long activeTime = session.getLastHeartBeat();
+        //退出群之前开始保留消息，期间的消息不会漏掉
+        boolean resumable = wsResumeBuffer.open(session.getResumeToken(), userId, activeTime, session.getGroups(), () -> offline(userId, offTime, activeTime));
+        groupChannelRegistry.leaveAll(channel);
+        //还有其他设备在线或等待断线恢复时不算离线
+        if (userChannelRegistry.remove(userId, channel) > 0 || resumable) {
+            return;
         }
+        offline(userId, offTime, activeTime);
+    }
+
+    /**
+     * @param activeTime 最后一次收到客户端数据的时间
+     */
+    private void offline(String userId, long offTime, long activeTime) {
+        if (userChannelRegistry.isOnline(userId) || wsResumeBuffer.isResumable(userId)) {
+            return;
+        }
+        userRouteRegistry.offline(userId);
         redisComponet.removeUserHeartBeat(userId);
+        //其他节点上也没有连接，开始记录离线收件箱
+        if (userOfflineInbox.isEnabled() && userRouteRegistry.getNodes(userId).isEmpty()) {
+            userOfflineInbox.open(userId, activeTime, getSyncContactIdList(userId));
+        }
 
         //更新用户最后断线时间
         UserInfo userInfo = new UserInfo();
-        userInfo.setLastOffTime(System.currentTimeMillis());
+        userInfo.setLastOffTime(offTime);
         userInfoMapper.updateByUserId(userInfo, userId);
     }
 
+    /**
+     * 用户在线连接的统计信息
+     */
+    public List<Map<String, Object>> getConnectionStats(String userId) {
+        List<Map<String, Object>> statsList = new ArrayList<>();
+        for (Channel channel : userChannelRegistry.getChannels(userId)) {
+            ConnectionSession session = ConnectionSession.get(channel);
+            if (session != null) {
+                statsList.add(session.getStats());
+            }
+        }
+        return statsList;
+    }
+
     public void closeContext(String userId) {
         if (StringTools.isEmpty(userId)) {
             return;
         }
         redisComponet.cleanUserTokenByUserId(userId);
-        Channel channel = USER_CONTEXT_MAP.get(userId);
-        USER_CONTEXT_MAP.remove(userId);
-        if (channel != null) {
+        //强制下线不能断线恢复
+        wsResumeBuffer.expire(userId);
+        for (Channel channel : userChannelRegistry.removeAll(userId)) {
+            ConnectionSession session = ConnectionSession.get(channel);
+            if (session != null) {
+                session.setResumeToken(null);
+            }
             channel.close();
         }
     }
@@ -211,40 +376,116 @@ public class ChannelContextUtils {
         if (messageSendDto.getContactId() == null) {
             return;
         }
+        if (isLazyGroupFanout()) {
+            sendMsg2GroupLazy(messageSendDto);
+            return;
+        }
 
-        ChannelGroup group = GROUP_CONTEXT_MAP.get(messageSendDto.getContactId());
+        //先保留给断线等待恢复的连接，再查在线连接，恢复过程中的消息不会漏掉
+        wsResumeBuffer.appendGroup(messageSendDto.getContactId(), messageSendDto);
+        Set<Channel> group = groupChannelRegistry.getChannels(messageSendDto.getContactId());
         if (group == null) {
             return;
         }
-        group.writeAndFlush(new TextWebSocketFrame(JSON.toJSONString(messageSendDto)));
+        writeChannels(group, messageSendDto, false);
 
         //移除群聊
         MessageTypeEnum messageTypeEnum = MessageTypeEnum.getByType(messageSendDto.getMessageType());
         if (MessageTypeEnum.LEAVE_GROUP == messageTypeEnum || MessageTypeEnum.REMOVE_GROUP == messageTypeEnum) {
             String userId = (String) messageSendDto.getExtendData();
             redisComponet.removeUserContact(userId, messageSendDto.getContactId());
-            Channel channel = USER_CONTEXT_MAP.get(userId);
-            if (channel == null) {
-                return;
-            }
-            group.remove(channel);
+            String groupId = messageSendDto.getContactId();
+            userChannelRegistry.forEach(userId, channel -> groupChannelRegistry.leave(groupId, channel));
+            wsResumeBuffer.leaveGroup(userId, messageSendDto.getContactId());
+        }
+
+        if (MessageTypeEnum.DISSOLUTION_GROUP == messageTypeEnum) {
+            groupChannelRegistry.remove(messageSendDto.getContactId());
         }
+    }
+
 
+    /**
+     * 按群成员索引查找本机在线连接发送
+     */
+    private void sendMsg2GroupLazy(MessageSendDto messageSendDto) {
+        String groupId = messageSendDto.getContactId();
+        MessageTypeEnum messageTypeEnum = MessageTypeEnum.getByType(messageSendDto.getMessageType());
+        //新成员需要收到加群消息，其他节点的索引直接失效重新加载
+        if (MessageTypeEnum.GROUP_CREATE == messageTypeEnum || MessageTypeEnum.ADD_GROUP == messageTypeEnum) {
+            groupMemberIndex.invalidate(groupId);
+        }
+        String[] members = groupMemberIndex.getMembers(groupId);
+        String leaveUserId = null;
+        boolean leaveUserRemoved = false;
+        if (MessageTypeEnum.LEAVE_GROUP == messageTypeEnum || MessageTypeEnum.REMOVE_GROUP == messageTypeEnum) {
+            //退群的人也要收到消息，数据库中可能已经删除
+            leaveUserId = (String) messageSendDto.getExtendData();
+            leaveUserRemoved = !Arrays.asList(members).contains(leaveUserId);
+        }
+        //先保留给断线等待恢复的连接，再查在线连接
+        wsResumeBuffer.append(members, messageSendDto);
+        if (leaveUserRemoved) {
+            wsResumeBuffer.append(leaveUserId, messageSendDto);
+        }
+        List<Channel> channels = new ArrayList<>();
+        Consumer<Channel> collector = channels::add;
+        for (String memberId : members) {
+            userChannelRegistry.forEach(memberId, collector);
+        }
+        if (leaveUserRemoved) {
+            userChannelRegistry.forEach(leaveUserId, collector);
+        }
+        if (!channels.isEmpty()) {
+            writeChannels(channels, messageSendDto, false);
+        }
+        if (leaveUserId != null) {
+            redisComponet.removeUserContact(leaveUserId, groupId);
+            groupMemberIndex.removeMember(groupId, leaveUserId);
+        }
         if (MessageTypeEnum.DISSOLUTION_GROUP == messageTypeEnum) {
-            GROUP_CONTEXT_MAP.remove(messageSendDto.getContactId());
-            group.close();
+            groupMemberIndex.invalidate(groupId);
         }
     }
 
+    private boolean isLazyGroupFanout() {
+        return GROUP_FANOUT_LAZY.equalsIgnoreCase(appConfig.getWsGroupFanoutMode());
+    }
 
-    private static void sendMsg(MessageSendDto messageSendDto, String reciveId) {
+    private void sendMsg(MessageSendDto messageSendDto, String reciveId) {
         if (reciveId == null) {
             return;
         }
-        Channel sendChannel = USER_CONTEXT_MAP.get(reciveId);
+        //先保留给断线等待恢复的连接，再查在线连接，恢复过程中的消息不会漏掉
+        boolean resumable = wsResumeBuffer.isResumable(reciveId);
+        if (resumable) {
+            convertContact(messageSendDto);
+            wsResumeBuffer.append(reciveId, messageSendDto);
+        }
+        //单设备在线时直接取连接，不分配数组
+        Channel sendChannel = userChannelRegistry.getChannel(reciveId);
+        Channel[] channels = null;
         if (sendChannel == null) {
+            channels = userChannelRegistry.getChannels(reciveId);
+            if (channels.length == 0) {
+                return;
+            }
+            if (channels.length == 1) {
+                sendChannel = channels[0];
+            }
+        }
+        if (!resumable) {
+            convertContact(messageSendDto);
+        }
+        if (sendChannel != null) {
+            sendChannel.writeAndFlush(wsBackPressure.wrap(WsFrameCodec.encode(sendChannel, messageSendDto, true), messageSendDto));
             return;
         }
+        //多设备在线时每种协议只编码一次
+        writeChannels(Arrays.asList(channels), messageSendDto, true);
+    }
+
+    private static void convertContact(MessageSendDto messageSendDto) {
         //相当于客户而言，联系人就是发送人，所以这里转换一下再发送,好友打招呼信息发送给自己需要特殊处理
         if (MessageTypeEnum.ADD_FRIEND_SELF.getType().equals(messageSendDto.getMessageType())) {
             UserInfo userInfo = (UserInfo) messageSendDto.getExtendData();
@@ -256,23 +497,50 @@ public class ChannelContextUtils {
             messageSendDto.setContactId(messageSendDto.getSendUserId());
             messageSendDto.setContactName(messageSendDto.getSendUserNickName());
         }
-        sendChannel.writeAndFlush(new TextWebSocketFrame(JsonUtils.convertObj2Json(messageSendDto)));
     }
 
-    private void add2Group(String groupId, Channel context) {
-        ChannelGroup group = GROUP_CONTEXT_MAP.get(groupId);
-        if (group == null) {
-            group = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
-            GROUP_CONTEXT_MAP.put(groupId, group);
-        }
-        if (context == null) {
-            return;
+    /**
+     * 群发，每种协议只编码一次，各通道共享同一份数据
+     *
+     * @param writeNullValue json格式下是否输出null字段
+     */
+    private void writeChannels(Iterable<Channel> channels, MessageSendDto messageSendDto, boolean writeNullValue) {
+        WebSocketFrame textFrame = null;
+        WebSocketFrame binaryFrame = null;
+        try {
+            for (Channel channel : channels) {
+                WebSocketFrame frame;
+                if (WsFrameCodec.isBinary(channel)) {
+                    if (binaryFrame == null) {
+                        binaryFrame = WsFrameCodec.encodeBinary(channel.alloc(), messageSendDto);
+                    }
+                    frame = binaryFrame;
+                } else {
+                    if (textFrame == null) {
+                        textFrame = WsFrameCodec.encodeText(channel.alloc(), messageSendDto, writeNullValue);
+                    }
+                    frame = textFrame;
+                }
+                channel.writeAndFlush(wsBackPressure.wrap(frame.retainedDuplicate(), messageSendDto));
+            }
+        } finally {
+            if (textFrame != null) {
+                textFrame.release();
+            }
+            if (binaryFrame != null) {
+                binaryFrame.release();
+            }
         }
-        group.add(context);
     }
 
     public void addUser2Group(String userId, String groupId) {
-        Channel channel = USER_CONTEXT_MAP.get(userId);
-        add2Group(groupId, channel);
+        //离线中加入的群，群消息也要写入收件箱
+        userOfflineInbox.joinGroup(userId, groupId);
+        if (isLazyGroupFanout()) {
+            groupMemberIndex.addMember(groupId, userId);
+            return;
+        }
+        userChannelRegistry.forEach(userId, channel -> groupChannelRegistry.join(groupId, channel));
+        wsResumeBuffer.joinGroup(userId, groupId);
     }
 }
@@ -0,0 +1,212 @@
+package com.easychat.websocket;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ws 连接会话，握手完成时创建并挂到通道上
+ * 所有连接共用一个AttributeKey，不再按通道id创建(ConstantPool中的key永远不会释放)
+ * 计数器只在通道的io线程上写，其他线程只读
+ */
+public class ConnectionSession {
+
+    private static final AttributeKey<ConnectionSession> SESSION_KEY = AttributeKey.valueOf("easychat.ws.session");
+
+    private volatile String userId;
+
+    private final String deviceId;
+
+    /**
+     * 是否使用二进制子协议
+     */
+    private final boolean binary;
+
+    private final long connectTime;
+
+    private volatile long lastHeartBeat;
+
+    private volatile long bytesIn;
+
+    private volatile long messagesIn;
+
+    private volatile long bytesOut;
+
+    private volatile long messagesOut;
+
+    /**
+     * 本连接加入的群，断开时据此退出
+     */
+    private volatile Set<String> groups;
+
+    /**
+     * 客户端握手时带的同步位置(收到的最大消息id)，为空时INIT发送最近的消息
+     */
+    private volatile Long syncToken;
+
+    /**
+     * 客户端握手时带的恢复令牌，上一个连接断开时保留的消息
+     */
+    private volatile String resumeFrom;
+
+    /**
+     * 发给本连接的恢复令牌，断开时据此保留消息
+     */
+    private volatile String resumeToken;
+
+    /**
+     * 上次续期用户路由的时间
+     */
+    private volatile long routeRefreshTime;
+
+    private ConnectionSession(String deviceId, boolean binary) {
+        this.deviceId = deviceId;
+        this.binary = binary;
+        this.connectTime = System.currentTimeMillis();
+        this.lastHeartBeat = connectTime;
+        this.routeRefreshTime = connectTime;
+    }
+
+    public static ConnectionSession create(Channel channel, String deviceId, boolean binary) {
+        ConnectionSession session = new ConnectionSession(deviceId, binary);
+        channel.attr(SESSION_KEY).set(session);
+        return session;
+    }
+
+    public static ConnectionSession get(Channel channel) {
+        return channel.attr(SESSION_KEY).get();
+    }
+
+    public static String getUserId(Channel channel) {
+        ConnectionSession session = get(channel);
+        return session == null ? null : session.getUserId();
+    }
+
+    public void onRead(int bytes) {
+        bytesIn += bytes;
+        messagesIn++;
+        lastHeartBeat = System.currentTimeMillis();
+    }
+
+    public void onWrite(int bytes) {
+        bytesOut += bytes;
+        messagesOut++;
+    }
+
+    public void addGroup(String groupId) {
+        Set<String> groupSet = groups;
+        if (groupSet == null) {
+            synchronized (this) {
+                if (groups == null) {
+                    groups = ConcurrentHashMap.newKeySet();
+                }
+                groupSet = groups;
+            }
+        }
+        groupSet.add(groupId);
+    }
+
+    public void removeGroup(String groupId) {
+        Set<String> groupSet = groups;
+        if (groupSet != null) {
+            groupSet.remove(groupId);
+        }
+    }
+
+    public Set<String> getGroups() {
+        Set<String> groupSet = groups;
+        return groupSet == null ? Collections.emptySet() : groupSet;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public Long getSyncToken() {
+        return syncToken;
+    }
+
+    public void setSyncToken(Long syncToken) {
+        this.syncToken = syncToken;
+    }
+
+    public String getResumeFrom() {
+        return resumeFrom;
+    }
+
+    public void setResumeFrom(String resumeFrom) {
+        this.resumeFrom = resumeFrom;
+    }
+
+    public String getResumeToken() {
+        return resumeToken;
+    }
+
+    public void setResumeToken(String resumeToken) {
+        this.resumeToken = resumeToken;
+    }
+
+    public long getRouteRefreshTime() {
+        return routeRefreshTime;
+    }
+
+    public void setRouteRefreshTime(long routeRefreshTime) {
+        this.routeRefreshTime = routeRefreshTime;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public long getConnectTime() {
+        return connectTime;
+    }
+
+    public long getLastHeartBeat() {
+        return lastHeartBeat;
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    public long getMessagesIn() {
+        return messagesIn;
+    }
+
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    public long getMessagesOut() {
+        return messagesOut;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("userId", userId);
+        stats.put("deviceId", deviceId);
+        stats.put("binary", binary);
+        stats.put("connectTime", connectTime);
+        stats.put("lastHeartBeat", lastHeartBeat);
+        stats.put("bytesIn", bytesIn);
+        stats.put("messagesIn", messagesIn);
+        stats.put("bytesOut", bytesOut);
+        stats.put("messagesOut", messagesOut);
+        stats.put("groups", getGroups().size());
+        return stats;
+    }
+}
@@ -0,0 +1,101 @@
+package com.easychat.websocket;
+
+import io.netty.channel.Channel;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 群组在线连接表
+ * 群的创建、加入、退出都在ConcurrentHashMap.compute中完成，最后一个本机成员离开时删除该群，
+ * 内存只和有在线成员的群数量相关。连接加入的群记录在ConnectionSession上，断开时只清理这些群
+ */
+@Component("groupChannelRegistry")
+public class GroupChannelRegistry {
+
+    private final ConcurrentMap<String, Set<Channel>> groupChannelMap = new ConcurrentHashMap<>();
+
+    public void join(String groupId, Channel channel) {
+        groupChannelMap.compute(groupId, (key, channels) -> {
+            if (channels == null) {
+                channels = ConcurrentHashMap.newKeySet();
+            }
+            channels.add(channel);
+            return channels;
+        });
+        ConnectionSession session = ConnectionSession.get(channel);
+        if (session != null) {
+            session.addGroup(groupId);
+        }
+        //加入时连接已经断开，断开清理可能已经执行过了
+        if (!channel.isActive()) {
+            leave(groupId, channel);
+        }
+    }
+
+    public void leave(String groupId, Channel channel) {
+        groupChannelMap.computeIfPresent(groupId, (key, channels) -> {
+            channels.remove(channel);
+            return channels.isEmpty() ? null : channels;
+        });
+        ConnectionSession session = ConnectionSession.get(channel);
+        if (session != null) {
+            session.removeGroup(groupId);
+        }
+    }
+
+    /**
+     * 连接断开，退出所有加入的群
+     */
+    public void leaveAll(Channel channel) {
+        ConnectionSession session = ConnectionSession.get(channel);
+        if (session == null) {
+            return;
+        }
+        for (String groupId : session.getGroups()) {
+            leave(groupId, channel);
+        }
+    }
+
+    /**
+     * 解散群
+     */
+    public void remove(String groupId) {
+        Set<Channel> channels = groupChannelMap.remove(groupId);
+        if (channels == null) {
+            return;
+        }
+        for (Channel channel : channels) {
+            ConnectionSession session = ConnectionSession.get(channel);
+            if (session != null) {
+                session.removeGroup(groupId);
+            }
+        }
+    }
+
+    /**
+     * 群在本机的在线连接，没有返回null
+     */
+    public Set<Channel> getChannels(String groupId) {
+        return groupChannelMap.get(groupId);
+    }
+
+    public Map<String, Object> getStats() {
+        long channels = 0;
+        int maxChannels = 0;
+        for (Set<Channel> groupChannels : groupChannelMap.values()) {
+            int size = groupChannels.size();
+            channels += size;
+            maxChannels = Math.max(maxChannels, size);
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("groups", groupChannelMap.size());
+        stats.put("memberChannels", channels);
+        stats.put("maxGroupChannels", maxChannels);
+        return stats;
+    }
+}
@@ -0,0 +1,210 @@
+package com.easychat.websocket;
+
+import com.easychat.entity.config.AppConfig;
+import com.easychat.entity.enums.UserContactStatusEnum;
+import com.easychat.entity.po.UserContact;
+import com.easychat.entity.query.UserContactQuery;
+import com.easychat.mappers.UserContactMapper;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 群成员索引，lazy群发模式使用
+ * 发送群消息时才按群加载成员，连接时不再逐个加入群；
+ * 成员变更消息(加群、退群、解散)会广播到所有节点，收到后更新或失效本地索引，另有过期时间兜底
+ * 同一个群同时只有一个线程查询数据库，没有缓存的等待这次查询，过期的由一个线程刷新，其他线程继续用旧的成员；
+ * 超过缓存群数时淘汰最久没有发送消息的一批群
+ */
+@Component("groupMemberIndex")
+public class GroupMemberIndex {
+
+    private static final String[] EMPTY = new String[0];
+
+    /**
+     * 访问时间精度(毫秒)，减少热点群上的写
+     */
+    private static final long ACCESS_TIME_PRECISION_MS = 1000;
+
+    /**
+     * 缓存满时一次淘汰的比例
+     */
+    private static final int EVICT_PERCENT = 10;
+
+    @Resource
+    private AppConfig appConfig;
+
+    @Resource
+    private UserContactMapper<UserContact, UserContactQuery> userContactMapper;
+
+    private final ConcurrentMap<String, Members> memberMap = new ConcurrentHashMap<>();
+
+    /**
+     * 正在从数据库加载的群
+     */
+    private final ConcurrentMap<String, CompletableFuture<Members>> loadingMap = new ConcurrentHashMap<>();
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder loadCount = new LongAdder();
+
+    private final LongAdder loadWaitCount = new LongAdder();
+
+    private final LongAdder evictCount = new LongAdder();
+
+    private static final class Members {
+        private final String[] userIds;
+        private final long loadTime;
+        private volatile long accessTime;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Members(String[] userIds, long loadTime) {
+            this.userIds = userIds;
+            this.loadTime = loadTime;
+            this.accessTime = loadTime;
+        }
+    }
+
+    /**
+     * 群成员userId，返回的数组不能修改
+     */
+    public String[] getMembers(String groupId) {
+        Members members = memberMap.get(groupId);
+        if (members == null) {
+            return loadOnce(groupId).userIds;
+        }
+        long now = System.currentTimeMillis();
+        if (now - members.accessTime >= ACCESS_TIME_PRECISION_MS) {
+            members.accessTime = now;
+        }
+        hitCount.increment();
+        if (now - members.loadTime >= appConfig.getWsGroupIndexTtlSeconds() * 1000L && members.refreshing.compareAndSet(false, true)) {
+            //过期只由一个线程刷新，其他线程继续用旧的成员
+            return loadOnce(groupId).userIds;
+        }
+        return members.userIds;
+    }
+
+    /**
+     * 同一个群只有一个线程查询数据库，其他线程等待结果
+     */
+    private Members loadOnce(String groupId) {
+        CompletableFuture<Members> loading = new CompletableFuture<>();
+        CompletableFuture<Members> existing = loadingMap.putIfAbsent(groupId, loading);
+        if (existing != null) {
+            loadWaitCount.increment();
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        try {
+            Members members = load(groupId);
+            loading.complete(members);
+            return members;
+        } catch (RuntimeException e) {
+            loading.completeExceptionally(e);
+            //加载失败时允许下一个线程再刷新
+            Members old = memberMap.get(groupId);
+            if (old != null) {
+                old.refreshing.set(false);
+            }
+            throw e;
+        } finally {
+            loadingMap.remove(groupId, loading);
+        }
+    }
+
+    private Members load(String groupId) {
+        loadCount.increment();
+        UserContactQuery query = new UserContactQuery();
+        query.setContactId(groupId);
+        query.setStatus(UserContactStatusEnum.FRIEND.getStatus());
+        List<UserContact> contactList = userContactMapper.selectList(query);
+        String[] userIds = contactList.stream().map(UserContact::getUserId).toArray(String[]::new);
+        Members members = new Members(userIds, System.currentTimeMillis());
+        if (memberMap.size() >= appConfig.getWsGroupIndexMaxGroups() && !memberMap.containsKey(groupId)) {
+            evict();
+        }
+        memberMap.put(groupId, members);
+        return members;
+    }
+
+    /**
+     * 淘汰最久没有访问的一批群，分摊到每次加载只是常数代价
+     */
+    private synchronized void evict() {
+        int maxGroups = appConfig.getWsGroupIndexMaxGroups();
+        if (memberMap.size() < maxGroups) {
+            return;
+        }
+        List<Map.Entry<String, Members>> entries = new ArrayList<>(memberMap.entrySet());
+        entries.sort(Comparator.comparingLong(entry -> entry.getValue().accessTime));
+        int count = Math.max(1, entries.size() - maxGroups + 1 + maxGroups * EVICT_PERCENT / 100);
+        for (int i = 0; i < count && i < entries.size(); i++) {
+            Map.Entry<String, Members> entry = entries.get(i);
+            if (memberMap.remove(entry.getKey(), entry.getValue())) {
+                evictCount.increment();
+            }
+        }
+    }
+
+    /**
+     * 本节点处理加群时直接加入，未加载的群等发送时再加载
+     */
+    public void addMember(String groupId, String userId) {
+        memberMap.computeIfPresent(groupId, (key, members) -> {
+            if (Arrays.asList(members.userIds).contains(userId)) {
+                return members;
+            }
+            String[] userIds = Arrays.copyOf(members.userIds, members.userIds.length + 1);
+            userIds[userIds.length - 1] = userId;
+            return copyOf(members, userIds);
+        });
+    }
+
+    public void removeMember(String groupId, String userId) {
+        memberMap.computeIfPresent(groupId, (key, members) -> {
+            String[] userIds = Arrays.stream(members.userIds).filter(item -> !item.equals(userId)).toArray(String[]::new);
+            return copyOf(members, userIds.length == 0 ? EMPTY : userIds);
+        });
+    }
+
+    private static Members copyOf(Members members, String[] userIds) {
+        Members copy = new Members(userIds, members.loadTime);
+        copy.accessTime = members.accessTime;
+        return copy;
+    }
+
+    public void invalidate(String groupId) {
+        memberMap.remove(groupId);
+    }
+
+    public Map<String, Object> getStats() {
+        long members = 0;
+        for (Members item : memberMap.values()) {
+            members += item.userIds.length;
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("groups", memberMap.size());
+        stats.put("members", members);
+        stats.put("hits", hitCount.sum());
+        stats.put("loads", loadCount.sum());
+        stats.put("loadWaits", loadWaitCount.sum());
+        stats.put("evicted", evictCount.sum());
+        return stats;
+    }
+}
@@ -1,42 +1,231 @@
 package com.easychat.websocket;
 
 
-import com.alibaba.fastjson2.JSON;
+import com.easychat.entity.config.AppConfig;
 import com.easychat.entity.dto.MessageSendDto;
-import org.redisson.api.RTopic;
-import org.redisson.api.RedissonClient;
+import com.easychat.entity.enums.MessageTypeEnum;
+import com.easychat.entity.enums.UserContactTypeEnum;
+import com.easychat.utils.CopyTools;
+import com.easychat.websocket.bus.MessageBus;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.RejectedExecutionHandlers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.annotation.Resource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 @Component("messageHandler")
 public class MessageHandler<T> {
 
     private static final Logger logger = LoggerFactory.getLogger(MessageHandler.class);
 
-    private static final String MESSAGE_TOPIC = "message.topic";
+    @Resource
+    private AppConfig appConfig;
 
     @Resource
-    private RedissonClient redissonClient;
+    private MessageBus messageBus;
 
     @Resource
     private ChannelContextUtils channelContextUtils;
 
+    @Resource
+    private UserRouteRegistry userRouteRegistry;
+
+    @Resource
+    private MessagePublishBatcher messagePublishBatcher;
+
+    @Resource
+    private UserOfflineInbox userOfflineInbox;
+
+    private final LongAdder broadcastCount = new LongAdder();
+
+    private final LongAdder routedCount = new LongAdder();
+
+    private final LongAdder offlineCount = new LongAdder();
+
+    private final LongAdder localCount = new LongAdder();
+
+    private final LongAdder afterCommitCount = new LongAdder();
+
+    private final LongAdder deliveryCallerRunsCount = new LongAdder();
+
+    /**
+     * 开启离线收件箱时写收件箱和查路由投递在这里执行，按联系人id分配线程，同一联系人的消息按顺序投递
+     */
+    private EventExecutorGroup deliveryGroup;
+
+    private EventExecutor[] deliveryExecutors;
 
     @PostConstruct
     public void lisMessage() {
-        RTopic rTopic = redissonClient.getTopic(MESSAGE_TOPIC);
-        rTopic.addListener(MessageSendDto.class, (MessageSendDto, sendDto) -> {
-            logger.info("收到广播消息:{}", JSON.toJSONString(sendDto));
-            channelContextUtils.sendMessage(sendDto);
-        });
+        messageBus.subscribe(userRouteRegistry.getNodeId(), channelContextUtils::sendMessage, this::dispatchRouted);
+        userRouteRegistry.registerNode();
+        if (!userOfflineInbox.isEnabled()) {
+            return;
+        }
+        int threads = appConfig.getWsDeliveryThreads() > 0 ? appConfig.getWsDeliveryThreads() : Runtime.getRuntime().availableProcessors();
+        deliveryGroup = new DefaultEventExecutorGroup(threads, new DefaultThreadFactory("message-delivery"), appConfig.getWsDeliveryQueueSize(),
+                RejectedExecutionHandlers.reject());
+        List<EventExecutor> executors = new ArrayList<>(threads);
+        for (EventExecutor executor : deliveryGroup) {
+            executors.add(executor);
+        }
+        deliveryExecutors = executors.toArray(new EventExecutor[0]);
+        logger.info("消息投递线程启动,线程数:{},单线程队列长度:{}", threads, appConfig.getWsDeliveryQueueSize());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (deliveryGroup != null) {
+            deliveryGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+        }
+    }
+
+    private void dispatchRouted(MessageSendDto sendDto) {
+        String contactId = sendDto.getContactId();
+        channelContextUtils.sendMessage(sendDto);
+        if (UserContactTypeEnum.USER == UserContactTypeEnum.getByPrefix(contactId)) {
+            userRouteRegistry.removeIfOffline(contactId);
+        }
     }
 
     public void sendMessage(MessageSendDto sendDto) {
-        RTopic rTopic = redissonClient.getTopic(MESSAGE_TOPIC);
-        rTopic.publish(sendDto);
+        //在事务中调用时提交后再投递，收件箱和在线用户都不会拿到未提交或回滚的消息
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            //调用方之后还会修改消息
+            MessageSendDto commitDto = CopyTools.copy(sendDto, MessageSendDto.class);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    dispatch(commitDto);
+                }
+            });
+            afterCommitCount.increment();
+            return;
+        }
+        dispatch(sendDto);
+    }
+
+    private void dispatch(MessageSendDto sendDto) {
+        if (deliveryExecutors == null) {
+            deliver(sendDto);
+            return;
+        }
+        MessageSendDto deliveryDto = CopyTools.copy(sendDto, MessageSendDto.class);
+        String contactId = deliveryDto.getContactId();
+        EventExecutor executor = deliveryExecutors[(contactId == null ? 0 : contactId.hashCode() & Integer.MAX_VALUE) % deliveryExecutors.length];
+        try {
+            executor.execute(() -> appendAndDeliver(deliveryDto));
+        } catch (RejectedExecutionException e) {
+            //队列满说明redis已经跟不上，由调用线程直接投递(此时同一联系人的消息可能乱序)
+            deliveryCallerRunsCount.increment();
+            logger.warn("消息投递队列已满，调用线程直接投递,contactId:{}", contactId);
+            appendAndDeliver(deliveryDto);
+        }
+    }
+
+    private void appendAndDeliver(MessageSendDto sendDto) {
+        try {
+            //先写离线收件箱再查路由投递，和用户上线的顺序相反，消息不会两边都漏掉
+            userOfflineInbox.append(sendDto);
+            deliver(sendDto);
+        } catch (Exception e) {
+            logger.error("投递消息失败,contactId:{}", sendDto.getContactId(), e);
+        }
+    }
+
+    private void deliver(MessageSendDto sendDto) {
+        //单机模式交给进程内消息通道异步投递，不查路由
+        if (!messageBus.isClustered()) {
+            localCount.increment();
+            messageBus.broadcast(sendDto);
+            return;
+        }
+        //强制下线需要清理token，用户不在线也要处理，仍然广播
+        UserContactTypeEnum contactTypeEnum = UserContactTypeEnum.getByPrefix(sendDto.getContactId());
+        if (contactTypeEnum == null || MessageTypeEnum.FORCE_OFF_LINE.getType().equals(sendDto.getMessageType())) {
+            broadcastCount.increment();
+            messageBus.broadcast(sendDto);
+            return;
+        }
+        String localNodeId = userRouteRegistry.getNodeId();
+        String contactId = sendDto.getContactId();
+        //单聊发给接收人所在节点，群聊发给所有节点
+        Set<String> nodes = UserContactTypeEnum.USER == contactTypeEnum ? userRouteRegistry.getNodes(contactId) : userRouteRegistry.getLiveNodes();
+        //用户不在线，消息已入库并写入离线收件箱，上线时同步
+        if (UserContactTypeEnum.USER == contactTypeEnum && nodes.isEmpty()) {
+            offlineCount.increment();
+            return;
+        }
+        //本节点直接投递，不再经过redis
+        if (UserContactTypeEnum.GROUP == contactTypeEnum || nodes.contains(localNodeId)) {
+            sendLocal(sendDto, contactTypeEnum);
+        }
+        for (String nodeId : nodes) {
+            if (nodeId.equals(localNodeId)) {
+                continue;
+            }
+            routedCount.increment();
+            messagePublishBatcher.publish(nodeId, sendDto, messageList -> removeStale(nodeId, messageList));
+        }
+    }
+
+    /**
+     * 节点已经不存在
+     */
+    private void removeStale(String nodeId, List<MessageSendDto> messageList) {
+        boolean groupMessage = false;
+        for (MessageSendDto sendDto : messageList) {
+            if (UserContactTypeEnum.USER == UserContactTypeEnum.getByPrefix(sendDto.getContactId())) {
+                userRouteRegistry.removeStale(sendDto.getContactId(), nodeId);
+            } else {
+                groupMessage = true;
+            }
+        }
+        if (groupMessage) {
+            userRouteRegistry.removeStaleNode(nodeId);
+        }
+    }
+
+    private void sendLocal(MessageSendDto sendDto, UserContactTypeEnum contactTypeEnum) {
+        localCount.increment();
+        try {
+            //发送时会转换联系人，调用方还要使用原消息，这里用副本
+            MessageSendDto localDto = CopyTools.copy(sendDto, MessageSendDto.class);
+            channelContextUtils.sendMessage(localDto);
+            if (UserContactTypeEnum.USER == contactTypeEnum) {
+                userRouteRegistry.removeIfOffline(sendDto.getContactId());
+            }
+        } catch (Exception e) {
+            logger.error("本地投递消息失败", e);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>(userRouteRegistry.getStats());
+        stats.put("bus", messageBus.getStats());
+        stats.put("broadcast", broadcastCount.sum());
+        stats.put("local", localCount.sum());
+        stats.put("routed", routedCount.sum());
+        stats.put("offlineSkipped", offlineCount.sum());
+        stats.put("afterCommit", afterCommitCount.sum());
+        stats.put("deliveryCallerRuns", deliveryCallerRunsCount.sum());
+        return stats;
     }
 }
@@ -0,0 +1,164 @@
+package com.easychat.websocket;
+
+import com.easychat.entity.config.AppConfig;
+import com.easychat.entity.dto.MessageSendBatchDto;
+import com.easychat.entity.dto.MessageSendDto;
+import com.easychat.utils.CopyTools;
+import com.easychat.websocket.bus.MessageBus;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 节点间消息合并发布，发给同一节点的消息窗口期内合成一个MessageSendBatchDto只发布一次
+ * 好友改昵称、批量加人退群时一次会产生大量消息
+ * 所有发布都在同一个线程上执行，保证同一节点的消息顺序
+ */
+@Component("messagePublishBatcher")
+public class MessagePublishBatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessagePublishBatcher.class);
+
+    /**
+     * 批量大小分布，第i个桶统计大小不超过2^i的批次
+     */
+    private static final int HISTOGRAM_BUCKETS = 11;
+
+    @Resource
+    private AppConfig appConfig;
+
+    @Resource
+    private MessageBus messageBus;
+
+    private ScheduledExecutorService executor;
+
+    private final ConcurrentMap<String, PendingBatch> pendingMap = new ConcurrentHashMap<>();
+
+    private final LongAdder publishCount = new LongAdder();
+
+    private final LongAdder messageCount = new LongAdder();
+
+    private final LongAdder[] histogram = new LongAdder[HISTOGRAM_BUCKETS];
+
+    private static final class PendingBatch {
+        private final Consumer<List<MessageSendDto>> onNoReceiver;
+        private List<MessageSendDto> messageList = new ArrayList<>();
+        private boolean scheduled;
+
+        private PendingBatch(Consumer<List<MessageSendDto>> onNoReceiver) {
+            this.onNoReceiver = onNoReceiver;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            histogram[i] = new LongAdder();
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("message-publish"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (String nodeId : pendingMap.keySet()) {
+            flush(nodeId);
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * 加入待发布队列
+     *
+     * @param onNoReceiver 节点已经不存在时回调，用于清理失效路由
+     */
+    public void publish(String nodeId, MessageSendDto sendDto, Consumer<List<MessageSendDto>> onNoReceiver) {
+        int windowMs = appConfig.getWsPublishWindowMs();
+        if (windowMs <= 0) {
+            doPublish(nodeId, List.of(sendDto), onNoReceiver);
+            return;
+        }
+        //调用方发送后可能继续修改这个对象再发送，延迟发布前先复制
+        MessageSendDto publishDto = CopyTools.copy(sendDto, MessageSendDto.class);
+        PendingBatch batch = pendingMap.computeIfAbsent(nodeId, key -> new PendingBatch(onNoReceiver));
+        synchronized (batch) {
+            batch.messageList.add(publishDto);
+            if (batch.messageList.size() >= appConfig.getWsPublishMaxSize()) {
+                batch.scheduled = true;
+                executor.execute(() -> flush(nodeId));
+            } else if (!batch.scheduled) {
+                batch.scheduled = true;
+                executor.schedule(() -> flush(nodeId), windowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void flush(String nodeId) {
+        PendingBatch batch = pendingMap.get(nodeId);
+        if (batch == null) {
+            return;
+        }
+        List<MessageSendDto> messageList;
+        synchronized (batch) {
+            messageList = batch.messageList;
+            batch.messageList = new ArrayList<>();
+            batch.scheduled = false;
+        }
+        if (!messageList.isEmpty()) {
+            doPublish(nodeId, messageList, batch.onNoReceiver);
+        }
+    }
+
+    private void doPublish(String nodeId, List<MessageSendDto> messageList, Consumer<List<MessageSendDto>> onNoReceiver) {
+        try {
+            //单条消息不包装，和原来的格式一致
+            Object message = messageList.size() == 1 ? messageList.get(0) : new MessageSendBatchDto(messageList);
+            boolean delivered = messageBus.publish(nodeId, message);
+            record(messageList.size());
+            if (!delivered) {
+                onNoReceiver.accept(messageList);
+            }
+        } catch (Exception e) {
+            logger.error("发布消息失败,nodeId:{},消息数:{}", nodeId, messageList.size(), e);
+        }
+    }
+
+    private void record(int size) {
+        publishCount.increment();
+        messageCount.add(size);
+        int bucket = 32 - Integer.numberOfLeadingZeros(size - 1);
+        histogram[Math.min(bucket, HISTOGRAM_BUCKETS - 1)].increment();
+    }
+
+    public Map<String, Object> getStats() {
+        long publishes = publishCount.sum();
+        long messages = messageCount.sum();
+        Map<String, Object> sizeHistogram = new LinkedHashMap<>();
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            sizeHistogram.put(i == HISTOGRAM_BUCKETS - 1 ? ">" + (1 << (i - 1)) : "<=" + (1 << i), histogram[i].sum());
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("windowMs", appConfig.getWsPublishWindowMs());
+        stats.put("maxSize", appConfig.getWsPublishMaxSize());
+        stats.put("publishes", publishes);
+        stats.put("messages", messages);
+        stats.put("avgBatchSize", publishes > 0 ? (double) messages / publishes : 0D);
+        stats.put("batchSizeHistogram", sizeHistogram);
+        return stats;
+    }
+}
@@ -0,0 +1,165 @@
+package com.easychat.websocket;
+
+import com.easychat.entity.config.AppConfig;
+import io.netty.channel.Channel;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.Resource;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * 用户在线连接表，一个用户可以有多个设备同时在线
+ * 单设备时value直接存Channel，和原来的USER_CONTEXT_MAP占用一样；多设备时存Channel[]，修改时整体替换(写时复制)，
+ * 读取不加锁，写入由ConcurrentHashMap.compute保证原子性
+ */
+@Component("userChannelRegistry")
+public class UserChannelRegistry {
+
+    private static final Channel[] EMPTY = new Channel[0];
+
+    private final ConcurrentMap<String, Object> userChannelMap = new ConcurrentHashMap<>();
+
+    @Resource
+    private AppConfig appConfig;
+
+    /**
+     * 加入连接，同一设备重连替换旧连接，超过最大设备数时挤掉最早的连接
+     *
+     * @return 被替换或挤掉的连接，需要调用方关闭，没有返回null
+     */
+    public Channel add(String userId, Channel channel) {
+        Channel[] evicted = new Channel[1];
+        int maxDevices = Math.max(1, appConfig.getWsMaxDevices());
+        userChannelMap.compute(userId, (key, value) -> {
+            if (value == null) {
+                return channel;
+            }
+            Channel[] channels = value instanceof Channel ? new Channel[]{(Channel) value} : (Channel[]) value;
+            String deviceId = deviceId(channel);
+            for (int i = 0; i < channels.length; i++) {
+                if (deviceId != null && deviceId.equals(deviceId(channels[i]))) {
+                    evicted[0] = channels[i];
+                    Channel[] replaced = channels.clone();
+                    replaced[i] = channel;
+                    return compact(replaced);
+                }
+            }
+            int from = channels.length >= maxDevices ? channels.length - maxDevices + 1 : 0;
+            if (from > 0) {
+                evicted[0] = channels[0];
+            }
+            Channel[] added = Arrays.copyOfRange(channels, from, channels.length + 1);
+            added[added.length - 1] = channel;
+            return compact(added);
+        });
+        return evicted[0];
+    }
+
+    /**
+     * 移除连接
+     *
+     * @return 该用户剩余的在线连接数
+     */
+    public int remove(String userId, Channel channel) {
+        Object value = userChannelMap.computeIfPresent(userId, (key, current) -> {
+            if (current == channel) {
+                return null;
+            }
+            if (current instanceof Channel) {
+                return current;
+            }
+            Channel[] channels = (Channel[]) current;
+            for (int i = 0; i < channels.length; i++) {
+                if (channels[i] == channel) {
+                    Channel[] removed = new Channel[channels.length - 1];
+                    System.arraycopy(channels, 0, removed, 0, i);
+                    System.arraycopy(channels, i + 1, removed, i, channels.length - i - 1);
+                    return compact(removed);
+                }
+            }
+            return current;
+        });
+        return count(value);
+    }
+
+    /**
+     * 移除用户的所有连接
+     */
+    public Channel[] removeAll(String userId) {
+        return toArray(userChannelMap.remove(userId));
+    }
+
+    /**
+     * 用户的所有在线连接，返回的数组不能修改；单设备时会分配数组，推送路径用getChannel或forEach
+     */
+    public Channel[] getChannels(String userId) {
+        return toArray(userChannelMap.get(userId));
+    }
+
+    /**
+     * 用户只有一个在线连接时返回该连接，多设备或不在线返回null
+     */
+    public Channel getChannel(String userId) {
+        Object value = userChannelMap.get(userId);
+        return value instanceof Channel ? (Channel) value : null;
+    }
+
+    /**
+     * 遍历用户的在线连接，单设备时不分配数组
+     */
+    public void forEach(String userId, Consumer<Channel> action) {
+        Object value = userChannelMap.get(userId);
+        if (value == null) {
+            return;
+        }
+        if (value instanceof Channel) {
+            action.accept((Channel) value);
+            return;
+        }
+        for (Channel channel : (Channel[]) value) {
+            action.accept(channel);
+        }
+    }
+
+    public boolean isOnline(String userId) {
+        return userChannelMap.containsKey(userId);
+    }
+
+    public Set<String> getUserIds() {
+        return userChannelMap.keySet();
+    }
+
+    public int getUserCount() {
+        return userChannelMap.size();
+    }
+
+    private static Object compact(Channel[] channels) {
+        if (channels.length == 0) {
+            return null;
+        }
+        return channels.length == 1 ? channels[0] : channels;
+    }
+
+    private static Channel[] toArray(Object value) {
+        if (value == null) {
+            return EMPTY;
+        }
+        return value instanceof Channel ? new Channel[]{(Channel) value} : (Channel[]) value;
+    }
+
+    private static int count(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        return value instanceof Channel ? 1 : ((Channel[]) value).length;
+    }
+
+    private static String deviceId(Channel channel) {
+        ConnectionSession session = ConnectionSession.get(channel);
+        return session == null ? null : session.getDeviceId();
+    }
+}
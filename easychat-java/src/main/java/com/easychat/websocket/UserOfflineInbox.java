@@ -0,0 +1,328 @@
+package com.easychat.websocket;
+
+import com.easychat.entity.config.AppConfig;
+import com.easychat.entity.constants.Constants;
+import com.easychat.entity.dto.MessageSendDto;
+import com.easychat.entity.enums.MessageTypeEnum;
+import com.easychat.entity.enums.UserContactTypeEnum;
+import com.easychat.utils.SnowflakeIdGenerator;
+import org.redisson.api.RBatch;
+import org.redisson.api.RMap;
+import org.redisson.api.RScript;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 用户离线收件箱，redis中每个用户一个有序集合保存离线期间发给他的消息id，分数即消息id
+ * 用户在集群中最后一个连接断开时写入起始标记(最后活跃时间、开始离线时间)并加入所在群的离线成员集合，上线同步完成后删除
+ * 投递消息时一次脚本调用给有标记的接收人追加，群消息只检查群的离线成员，按条数和天数裁剪；
+ * 重连同步读收件箱后按主键批量查询消息，代价和离线期间的消息数成正比，与加入的群数量无关
+ */
+@Component("userOfflineInbox")
+public class UserOfflineInbox {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserOfflineInbox.class);
+
+    private static final String MARK_ACTIVE_TIME = "activeTime";
+
+    private static final String MARK_OFFLINE_TIME = "offlineTime";
+
+    /**
+     * KEYS: 标记、收件箱、所在群的离线成员集合；ARGV: 最后活跃时间、开始离线时间、过期秒数、用户id
+     * 标记已存在说明上次离线的收件箱还没有被同步，沿用原来的起始时间；
+     * 没有标记时残留的消息id不完整，先删除再写标记
+     */
+    private static final String OPEN_SCRIPT = "local opened = 0 "
+            + "if redis.call('exists', KEYS[1]) == 0 then "
+            + "redis.call('del', KEYS[2]) "
+            + "redis.call('hset', KEYS[1], '" + MARK_ACTIVE_TIME + "', ARGV[1], '" + MARK_OFFLINE_TIME + "', ARGV[2]) "
+            + "opened = 1 "
+            + "end "
+            + "redis.call('expire', KEYS[1], ARGV[3]) "
+            + "for i = 3, #KEYS do "
+            + "redis.call('sadd', KEYS[i], ARGV[4]) "
+            + "redis.call('expire', KEYS[i], ARGV[3]) "
+            + "end "
+            + "return opened";
+
+    /**
+     * KEYS: 群的离线成员集合(单聊没有)；ARGV: 消息id、最多条数、最早消息id、过期秒数、标记前缀、收件箱前缀、额外的接收人
+     * 离线成员的标记已经过期时从集合中移除；额外的接收人是单聊的接收人或退群的人，退群的人追加后从集合中移除
+     */
+    private static final String APPEND_SCRIPT = "local users = {} "
+            + "if #KEYS > 0 then users = redis.call('smembers', KEYS[1]) end "
+            + "for i = 7, #ARGV do users[#users + 1] = ARGV[i] end "
+            + "local appended = 0 "
+            + "for _, userId in ipairs(users) do "
+            + "if redis.call('exists', ARGV[5] .. userId) == 1 then "
+            + "local inbox = ARGV[6] .. userId "
+            + "redis.call('zadd', inbox, ARGV[1], ARGV[1]) "
+            + "redis.call('zremrangebyrank', inbox, 0, -tonumber(ARGV[2]) - 1) "
+            + "redis.call('zremrangebyscore', inbox, 0, '(' .. ARGV[3]) "
+            + "redis.call('expire', inbox, ARGV[4]) "
+            + "appended = appended + 1 "
+            + "elseif #KEYS > 0 then "
+            + "redis.call('srem', KEYS[1], userId) "
+            + "end "
+            + "end "
+            + "if #KEYS > 0 then for i = 7, #ARGV do redis.call('srem', KEYS[1], ARGV[i]) end end "
+            + "return appended";
+
+    /**
+     * KEYS: 标记、群的离线成员集合；ARGV: 用户id、过期秒数
+     */
+    private static final String JOIN_SCRIPT = "if redis.call('exists', KEYS[1]) == 0 then return 0 end "
+            + "redis.call('sadd', KEYS[2], ARGV[1]) "
+            + "redis.call('expire', KEYS[2], ARGV[2]) "
+            + "return 1";
+
+    @Resource
+    private AppConfig appConfig;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    private final LongAdder openCount = new LongAdder();
+
+    private final LongAdder appendMessageCount = new LongAdder();
+
+    private final LongAdder appendCount = new LongAdder();
+
+    private final LongAdder readCount = new LongAdder();
+
+    private final LongAdder failCount = new LongAdder();
+
+    /**
+     * 起始标记
+     */
+    public static final class Mark {
+        //最后一次收到客户端数据的时间
+        private final long activeTime;
+        //开始写入收件箱的时间
+        private final long offlineTime;
+
+        private Mark(long activeTime, long offlineTime) {
+            this.activeTime = activeTime;
+            this.offlineTime = offlineTime;
+        }
+
+        public long getActiveTime() {
+            return activeTime;
+        }
+
+        public long getOfflineTime() {
+            return offlineTime;
+        }
+    }
+
+    public boolean isEnabled() {
+        return appConfig.getWsInboxMaxSize() > 0;
+    }
+
+    /**
+     * 用户在集群中已经没有连接，开始收件
+     *
+     * @param contactIdList 用户加入的群，其他联系人忽略
+     */
+    public void open(String userId, long activeTime, List<String> contactIdList) {
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            List<Object> keys = new ArrayList<>();
+            keys.add(Constants.REDIS_KEY_USER_INBOX_MARK + userId);
+            keys.add(Constants.REDIS_KEY_USER_INBOX + userId);
+            for (String groupId : getGroupIds(contactIdList)) {
+                keys.add(Constants.REDIS_KEY_GROUP_OFFLINE_USER + groupId);
+            }
+            Long opened = redissonClient.getScript(StringCodec.INSTANCE).eval(RScript.Mode.READ_WRITE, OPEN_SCRIPT, RScript.ReturnType.INTEGER, keys,
+                    String.valueOf(activeTime), String.valueOf(System.currentTimeMillis()), String.valueOf(expireSeconds()), userId);
+            if (opened != null && opened > 0) {
+                openCount.increment();
+            }
+        } catch (Exception e) {
+            failCount.increment();
+            logger.error("开启离线收件箱失败,userId:{}", userId, e);
+        }
+    }
+
+    /**
+     * 离线期间加入的群，之后的群消息也要追加
+     */
+    public void joinGroup(String userId, String groupId) {
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            redissonClient.getScript(StringCodec.INSTANCE).eval(RScript.Mode.READ_WRITE, JOIN_SCRIPT, RScript.ReturnType.INTEGER,
+                    Arrays.asList(Constants.REDIS_KEY_USER_INBOX_MARK + userId, Constants.REDIS_KEY_GROUP_OFFLINE_USER + groupId),
+                    userId, String.valueOf(expireSeconds()));
+        } catch (Exception e) {
+            failCount.increment();
+            logger.error("离线收件箱加入群失败,userId:{},groupId:{}", userId, groupId, e);
+        }
+    }
+
+    /**
+     * 追加已提交的消息，在查路由投递前调用：离线的用户上线时先登记路由再读收件箱，两边至少有一边能收到
+     */
+    public void append(MessageSendDto messageSendDto) {
+        if (!isEnabled() || messageSendDto.getMessageId() == null || messageSendDto.getContactId() == null) {
+            return;
+        }
+        String contactId = messageSendDto.getContactId();
+        UserContactTypeEnum contactTypeEnum = UserContactTypeEnum.getByPrefix(contactId);
+        if (UserContactTypeEnum.USER != contactTypeEnum && UserContactTypeEnum.GROUP != contactTypeEnum) {
+            return;
+        }
+        try {
+            List<Object> keys = Collections.emptyList();
+            List<Object> args = new ArrayList<>();
+            long messageId = messageSendDto.getMessageId();
+            long floorId = SnowflakeIdGenerator.minIdOf(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(appConfig.getWsSyncMaxDays()));
+            args.add(String.valueOf(messageId));
+            args.add(String.valueOf(appConfig.getWsInboxMaxSize()));
+            args.add(String.valueOf(floorId));
+            args.add(String.valueOf(expireSeconds()));
+            args.add(Constants.REDIS_KEY_USER_INBOX_MARK);
+            args.add(Constants.REDIS_KEY_USER_INBOX);
+            if (UserContactTypeEnum.USER == contactTypeEnum) {
+                args.add(contactId);
+            } else {
+                keys = Collections.singletonList(Constants.REDIS_KEY_GROUP_OFFLINE_USER + contactId);
+                //退群的人也要收到消息
+                MessageTypeEnum messageTypeEnum = MessageTypeEnum.getByType(messageSendDto.getMessageType());
+                if ((MessageTypeEnum.LEAVE_GROUP == messageTypeEnum || MessageTypeEnum.REMOVE_GROUP == messageTypeEnum)
+                        && messageSendDto.getExtendData() instanceof String) {
+                    args.add(messageSendDto.getExtendData());
+                }
+            }
+            Long appended = redissonClient.getScript(StringCodec.INSTANCE).eval(RScript.Mode.READ_WRITE, APPEND_SCRIPT, RScript.ReturnType.INTEGER,
+                    keys, args.toArray());
+            appendMessageCount.increment();
+            appendCount.add(appended == null ? 0 : appended);
+        } catch (Exception e) {
+            //收件箱不完整时客户端同步会缺消息，但不影响在线投递
+            failCount.increment();
+            logger.error("追加离线收件箱失败,messageId:{}", messageSendDto.getMessageId(), e);
+        }
+    }
+
+    private List<String> getGroupIds(List<String> contactIdList) {
+        List<String> groupIds = new ArrayList<>();
+        for (String contactId : contactIdList) {
+            if (UserContactTypeEnum.GROUP == UserContactTypeEnum.getByPrefix(contactId)) {
+                groupIds.add(contactId);
+            }
+        }
+        return groupIds;
+    }
+
+    /**
+     * 离线起始标记，不存在返回null，此时收件箱不完整
+     */
+    public Mark getMark(String userId) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Map<String, String> values = markMap(userId).readAllMap();
+        String activeTime = values.get(MARK_ACTIVE_TIME);
+        String offlineTime = values.get(MARK_OFFLINE_TIME);
+        if (activeTime == null || offlineTime == null) {
+            return null;
+        }
+        readCount.increment();
+        return new Mark(Long.parseLong(activeTime), Long.parseLong(offlineTime));
+    }
+
+    /**
+     * 收件箱中大于afterMessageId的消息id，从小到大
+     */
+    public Collection<String> range(String userId, long afterMessageId, int limit) {
+        return redissonClient.getScoredSortedSet(Constants.REDIS_KEY_USER_INBOX + userId, StringCodec.INSTANCE)
+                .valueRange(afterMessageId, false, Double.POSITIVE_INFINITY, true, 0, limit);
+    }
+
+    /**
+     * 收件箱中大于afterMessageId的消息条数
+     */
+    public long count(String userId, long afterMessageId) {
+        return redissonClient.getScoredSortedSet(Constants.REDIS_KEY_USER_INBOX + userId, StringCodec.INSTANCE)
+                .count(afterMessageId, false, Double.POSITIVE_INFINITY, true);
+    }
+
+    /**
+     * 收件箱中大于afterMessageId的第offset条(从0开始)消息id
+     */
+    public long idAt(String userId, long afterMessageId, long offset) {
+        Collection<String> messageIds = redissonClient.getScoredSortedSet(Constants.REDIS_KEY_USER_INBOX + userId, StringCodec.INSTANCE)
+                .valueRange(afterMessageId, false, Double.POSITIVE_INFINITY, true, (int) offset, 1);
+        return messageIds.isEmpty() ? afterMessageId : Long.parseLong(messageIds.iterator().next());
+    }
+
+    /**
+     * 收件箱是否被裁剪过，裁剪后起始时间之后的消息不完整
+     */
+    public boolean isFull(String userId) {
+        return redissonClient.getScoredSortedSet(Constants.REDIS_KEY_USER_INBOX + userId, StringCodec.INSTANCE).size() >= appConfig.getWsInboxMaxSize();
+    }
+
+    /**
+     * 用户上线，同步完成后删除收件箱
+     *
+     * @param contactIdList 用户加入的群，其他联系人忽略；离线期间退出的群等下次追加时移除
+     */
+    public void close(String userId, List<String> contactIdList) {
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            RBatch batch = redissonClient.createBatch();
+            batch.getMap(Constants.REDIS_KEY_USER_INBOX_MARK + userId, StringCodec.INSTANCE).deleteAsync();
+            batch.getScoredSortedSet(Constants.REDIS_KEY_USER_INBOX + userId, StringCodec.INSTANCE).deleteAsync();
+            for (String groupId : getGroupIds(contactIdList)) {
+                batch.getSet(Constants.REDIS_KEY_GROUP_OFFLINE_USER + groupId, StringCodec.INSTANCE).removeAsync(userId);
+            }
+            batch.execute();
+        } catch (Exception e) {
+            failCount.increment();
+            logger.error("删除离线收件箱失败,userId:{}", userId, e);
+        }
+    }
+
+    private RMap<String, String> markMap(String userId) {
+        return redissonClient.getMap(Constants.REDIS_KEY_USER_INBOX_MARK + userId, StringCodec.INSTANCE);
+    }
+
+    private long expireSeconds() {
+        return TimeUnit.DAYS.toSeconds(appConfig.getWsSyncMaxDays());
+    }
+
+    public Map<String, Object> getStats() {
+        long messages = appendMessageCount.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("maxSize", appConfig.getWsInboxMaxSize());
+        stats.put("opened", openCount.sum());
+        stats.put("appendedMessages", messages);
+        stats.put("appended", appendCount.sum());
+        stats.put("avgReceivers", messages > 0 ? (double) appendCount.sum() / messages : 0D);
+        stats.put("read", readCount.sum());
+        stats.put("failed", failCount.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,183 @@
+package com.easychat.websocket;
+
+import com.easychat.entity.config.AppConfig;
+import com.easychat.entity.constants.Constants;
+import com.easychat.utils.StringTools;
+import org.redisson.api.RSet;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 用户路由表，记录用户连接在哪些ws节点上，redis中每个用户一个set
+ * 本节点第一个连接建立时加入，在线期间随心跳续期，最后一个连接断开(等待断线恢复的在过期后)时移除；节点宕机留下的路由在发布无人接收时清理
+ * 另外记录在线节点列表，群消息本节点直接投递，只发给其他节点
+ */
+@Component("userRouteRegistry")
+public class UserRouteRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserRouteRegistry.class);
+
+    /**
+     * 在线期间续期路由的间隔，远小于路由的过期时间
+     */
+    private static final long REFRESH_INTERVAL_MS = TimeUnit.HOURS.toMillis(1);
+
+    @Resource
+    private AppConfig appConfig;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private UserChannelRegistry userChannelRegistry;
+
+    @Resource
+    private WsResumeBuffer wsResumeBuffer;
+
+    private String nodeId;
+
+    /**
+     * 单机模式(ws.bus.type=local)不维护路由
+     */
+    private boolean enabled;
+
+    private final LongAdder staleCount = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        nodeId = StringTools.isEmpty(appConfig.getWsNodeId()) ? StringTools.getRandomString(12) : appConfig.getWsNodeId();
+        enabled = !"local".equalsIgnoreCase(appConfig.getWsBusType());
+        logger.info("ws节点id:{}", nodeId);
+    }
+
+    /**
+     * 节点topic订阅完成后登记，避免其他节点发布时无人接收被当作失效节点移除
+     */
+    public void registerNode() {
+        if (!enabled) {
+            return;
+        }
+        getNodeSet().add(nodeId);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        getNodeSet().remove(nodeId);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * 用户在本节点上线
+     */
+    public void online(String userId) {
+        if (!enabled) {
+            return;
+        }
+        RSet<String> nodes = getRoute(userId);
+        nodes.add(nodeId);
+        nodes.expire(Constants.REDIS_KEY_TOKEN_EXPIRES, TimeUnit.SECONDS);
+        //被误判失效移除后重新登记
+        registerNode();
+    }
+
+    /**
+     * 收到心跳时续期路由，长时间在线的用户路由不会过期；同时补回被误判失效移除的本节点
+     */
+    public void refresh(String userId, ConnectionSession session) {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - session.getRouteRefreshTime() < REFRESH_INTERVAL_MS) {
+            return;
+        }
+        session.setRouteRefreshTime(now);
+        RSet<String> nodes = getRoute(userId);
+        nodes.add(nodeId);
+        nodes.expire(Constants.REDIS_KEY_TOKEN_EXPIRES, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 用户在本节点的连接全部断开
+     */
+    public void offline(String userId) {
+        if (!enabled) {
+            return;
+        }
+        getRoute(userId).remove(nodeId);
+    }
+
+    public Set<String> getNodes(String userId) {
+        return getRoute(userId).readAll();
+    }
+
+    /**
+     * 路由指向的节点已经不存在
+     */
+    public void removeStale(String userId, String staleNodeId) {
+        staleCount.increment();
+        getRoute(userId).remove(staleNodeId);
+    }
+
+    /**
+     * 在线的所有节点
+     */
+    public Set<String> getLiveNodes() {
+        return getNodeSet().readAll();
+    }
+
+    /**
+     * 节点已经不存在
+     */
+    public void removeStaleNode(String staleNodeId) {
+        staleCount.increment();
+        getNodeSet().remove(staleNodeId);
+    }
+
+    /**
+     * 路由到本节点但用户不在线(节点重启等)，移除本节点路由
+     * 移除后再检查一次，避免和同时建立的连接冲突
+     */
+    public void removeIfOffline(String userId) {
+        //断线等待恢复期间保留路由
+        if (userChannelRegistry.isOnline(userId) || wsResumeBuffer.isResumable(userId)) {
+            return;
+        }
+        staleCount.increment();
+        offline(userId);
+        if (userChannelRegistry.isOnline(userId)) {
+            online(userId);
+        }
+    }
+
+    private RSet<String> getNodeSet() {
+        return redissonClient.getSet(Constants.REDIS_KEY_WS_NODES, StringCodec.INSTANCE);
+    }
+
+    private RSet<String> getRoute(String userId) {
+        return redissonClient.getSet(Constants.REDIS_KEY_WS_USER_ROUTE + userId, StringCodec.INSTANCE);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("nodeId", nodeId);
+        stats.put("localUsers", userChannelRegistry.getUserCount());
+        stats.put("staleRoutes", staleCount.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,131 @@
+package com.easychat.websocket;
+
+import com.easychat.entity.config.AppConfig;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.RejectedExecutionHandlers;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ws 业务线程池
+ * 连接初始化、断开清理、心跳等会访问mysql/redis的操作从netty io线程移到这里执行，
+ * 避免一次慢查询卡住同一个io线程上的所有连接。
+ * 同一个通道固定分配到同一个线程，保证连接、心跳、断开的执行顺序。
+ */
+@Component("wsBusinessExecutor")
+public class WsBusinessExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(WsBusinessExecutor.class);
+
+    private static final AttributeKey<EventExecutor> EXECUTOR_KEY = AttributeKey.valueOf("easychat.business.executor");
+
+    /**
+     * 队列满时由调用线程(io线程)直接执行
+     */
+    private static final String REJECT_POLICY_CALLER_RUNS = "caller-runs";
+
+    @Resource
+    private AppConfig appConfig;
+
+    private EventExecutorGroup executorGroup;
+
+    private int threads;
+
+    private final LongAdder submittedCount = new LongAdder();
+
+    private final LongAdder rejectedCount = new LongAdder();
+
+    private final LongAdder callerRunsCount = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        threads = appConfig.getWsBusinessThreads() > 0 ? appConfig.getWsBusinessThreads() : Runtime.getRuntime().availableProcessors() * 4;
+        executorGroup = new DefaultEventExecutorGroup(threads, new DefaultThreadFactory("ws-business"), appConfig.getWsBusinessQueueSize(),
+                RejectedExecutionHandlers.reject());
+        logger.info("ws业务线程池启动,线程数:{},单线程队列长度:{}", threads, appConfig.getWsBusinessQueueSize());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executorGroup != null) {
+            executorGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 提交通道相关的业务任务
+     *
+     * @param channel
+     * @param task
+     * @return false 表示队列已满任务被拒绝，由调用方决定如何处理(关闭连接、丢弃心跳等)
+     */
+    public boolean execute(Channel channel, Runnable task) {
+        EventExecutor executor = channel.attr(EXECUTOR_KEY).get();
+        if (executor == null) {
+            executor = executorGroup.next();
+            EventExecutor old = channel.attr(EXECUTOR_KEY).setIfAbsent(executor);
+            if (old != null) {
+                executor = old;
+            }
+        }
+        submittedCount.increment();
+        try {
+            executor.execute(() -> run(task));
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejectedCount.increment();
+            if (REJECT_POLICY_CALLER_RUNS.equalsIgnoreCase(appConfig.getWsBusinessRejectPolicy())) {
+                callerRunsCount.increment();
+                //在io线程执行，异常不能抛进pipeline
+                run(task);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private void run(Runnable task) {
+        try {
+            task.run();
+        } catch (Exception e) {
+            logger.error("ws业务任务执行失败", e);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long pendingTasks = 0;
+        int maxPendingTasks = 0;
+        for (EventExecutor executor : executorGroup) {
+            if (executor instanceof SingleThreadEventExecutor) {
+                int pending = ((SingleThreadEventExecutor) executor).pendingTasks();
+                pendingTasks += pending;
+                maxPendingTasks = Math.max(maxPendingTasks, pending);
+            }
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("threads", threads);
+        stats.put("queueCapacityPerThread", appConfig.getWsBusinessQueueSize());
+        stats.put("pendingTasks", pendingTasks);
+        stats.put("maxPendingTasks", maxPendingTasks);
+        stats.put("submitted", submittedCount.sum());
+        stats.put("rejected", rejectedCount.sum());
+        stats.put("callerRuns", callerRunsCount.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,375 @@
+package com.easychat.websocket;
+
+import com.easychat.entity.config.AppConfig;
+import com.easychat.entity.dto.MessageSendDto;
+import com.easychat.entity.dto.WsSyncData;
+import com.easychat.entity.enums.MessageTypeEnum;
+import com.easychat.entity.po.ChatMessage;
+import com.easychat.entity.query.ChatMessageQuery;
+import com.easychat.mappers.ChatMessageMapper;
+import com.easychat.utils.SnowflakeIdGenerator;
+import com.easychat.websocket.codec.WsFrameCodec;
+import com.easychat.websocket.netty.WsBackPressure;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 连接初始化后的消息同步，初始化帧只带会话信息，消息按消息id顺序分页发送
+ * 每页按(contact_id, message_id)索引做一次范围查询，查完立即归还数据库连接，写网络期间不占用连接和业务线程；
+ * 一页写出后在业务线程提交下一页，通道不可写时等这一页发出再继续，超时断开连接
+ * 客户端握手时带上收到的最大消息id(syncToken)时只发送之后的消息，否则发送上次离线之后的消息
+ * 超过条数上限时只发送最新的消息并标记truncated，更早的由客户端按会话加载历史消息补齐
+ * 有离线收件箱时开始离线之后的消息按收件箱中的消息id查询，之前的一段查询数据库
+ */
+@Component("wsMessageSync")
+public class WsMessageSync {
+
+    private static final Logger logger = LoggerFactory.getLogger(WsMessageSync.class);
+
+    @Resource
+    private AppConfig appConfig;
+
+    @Resource
+    private ChatMessageMapper<ChatMessage, ChatMessageQuery> chatMessageMapper;
+
+    @Resource
+    private WsBackPressure wsBackPressure;
+
+    @Resource
+    private WsBusinessExecutor wsBusinessExecutor;
+
+    @Resource
+    private UserOfflineInbox userOfflineInbox;
+
+    private final LongAdder syncCount = new LongAdder();
+
+    private final LongAdder inboxSyncCount = new LongAdder();
+
+    private final LongAdder activeCount = new LongAdder();
+
+    private final LongAdder frameCount = new LongAdder();
+
+    private final LongAdder messageCount = new LongAdder();
+
+    private final LongAdder truncatedCount = new LongAdder();
+
+    private final LongAdder waitCount = new LongAdder();
+
+    private final LongAdder timeoutCount = new LongAdder();
+
+    private final LongAdder failCount = new LongAdder();
+
+    /**
+     * 一次同步，先按数据库范围读，有收件箱时再按收件箱中的消息id读
+     */
+    private final class SyncTask {
+        private final Channel channel;
+        private final String userId;
+        private final List<String> contactIdList;
+        private final int pageSize = appConfig.getWsSyncPageSize();
+        private final int maxMessages = appConfig.getWsSyncMaxMessages();
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        private Long syncToken;
+        private boolean truncated;
+        private int total;
+        //数据库范围，afterMessageId随每页前进
+        private Long afterMessageId;
+        private Long toMessageId;
+        private Long sendTimeFrom;
+        private boolean dbDone;
+        //收件箱位置，为空时不读收件箱
+        private Long inboxAfterId;
+        private Set<String> contactIdSet;
+
+        private SyncTask(Channel channel, String userId, List<String> contactIdList, Long syncToken) {
+            this.channel = channel;
+            this.userId = userId;
+            this.contactIdList = contactIdList;
+            this.syncToken = syncToken;
+        }
+
+        private CompletableFuture<Boolean> start() {
+            syncCount.increment();
+            activeCount.increment();
+            submit();
+            return result;
+        }
+
+        private void submit() {
+            if (!wsBusinessExecutor.execute(channel, this::nextPage)) {
+                //业务线程忙，断开后客户端从已收到的位置重新同步
+                logger.warn("通道{}同步消息提交失败，断开连接", channel.id());
+                channel.close();
+                finish(false);
+            }
+        }
+
+        private void nextPage() {
+            if (!channel.isActive()) {
+                finish(false);
+                return;
+            }
+            List<ChatMessage> page = new ArrayList<>(pageSize);
+            boolean hasMore;
+            try {
+                //收件箱中已退出的群的消息会被过滤，空页不发送，继续读下一页
+                do {
+                    hasMore = readPage(page);
+                } while (hasMore && page.isEmpty());
+            } catch (Exception e) {
+                logger.error("同步消息查询失败,userId:{}", userId, e);
+                channel.close();
+                finish(false);
+                return;
+            }
+            total += page.size();
+            if (!page.isEmpty()) {
+                long lastMessageId = page.get(page.size() - 1).getMessageId();
+                syncToken = syncToken == null ? lastMessageId : Math.max(syncToken, lastMessageId);
+            }
+            ChannelFuture future = write(channel, page, syncToken, hasMore, truncated);
+            if (!hasMore) {
+                messageCount.add(total);
+                if (truncated) {
+                    truncatedCount.increment();
+                }
+                //最后一帧发出后才算完成，回到业务线程完成，调用方的后续处理会访问redis
+                future.addListener(f -> {
+                    if (!f.isSuccess() || !wsBusinessExecutor.execute(channel, () -> finish(true))) {
+                        finish(false);
+                    }
+                });
+                return;
+            }
+            if (channel.isWritable()) {
+                submit();
+                return;
+            }
+            waitCount.increment();
+            ScheduledFuture<?> timeout = channel.eventLoop().schedule(() -> {
+                timeoutCount.increment();
+                logger.warn("通道{}同步消息等待发送超时，断开连接", channel.id());
+                channel.close();
+            }, appConfig.getWsSyncWriteTimeoutMs(), TimeUnit.MILLISECONDS);
+            future.addListener(f -> {
+                timeout.cancel(false);
+                if (f.isSuccess() && channel.isActive()) {
+                    submit();
+                } else {
+                    finish(false);
+                }
+            });
+        }
+
+        /**
+         * 往page中读一页，超过条数上限的部分不再读取
+         *
+         * @return 后面是否还有消息
+         */
+        private boolean readPage(List<ChatMessage> page) {
+            int limit = Math.min(pageSize, maxMessages - total) - page.size();
+            if (limit <= 0) {
+                truncated = truncated || !dbDone || inboxAfterId != null;
+                return false;
+            }
+            if (!dbDone) {
+                //多取一条判断后面是否还有
+                List<ChatMessage> list = chatMessageMapper.selectPageByContactIds(contactIdList, afterMessageId, toMessageId, sendTimeFrom, limit + 1);
+                if (list.size() > limit) {
+                    page.addAll(list.subList(0, limit));
+                    afterMessageId = list.get(limit - 1).getMessageId();
+                    return true;
+                }
+                page.addAll(list);
+                dbDone = true;
+                return inboxAfterId != null;
+            }
+            if (inboxAfterId == null) {
+                return false;
+            }
+            Collection<String> messageIds = userOfflineInbox.range(userId, inboxAfterId, limit + 1);
+            List<Long> messageIdList = new ArrayList<>(messageIds.size());
+            for (String messageId : messageIds) {
+                if (messageIdList.size() == limit) {
+                    break;
+                }
+                messageIdList.add(Long.parseLong(messageId));
+            }
+            if (messageIdList.isEmpty()) {
+                inboxAfterId = null;
+                return false;
+            }
+            for (ChatMessage chatMessage : chatMessageMapper.selectByMessageIdList(messageIdList)) {
+                //追加时按群成员缓存查找接收人，已经退出的群不再发送
+                if (contactIdSet.contains(chatMessage.getContactId())) {
+                    page.add(chatMessage);
+                }
+            }
+            if (messageIds.size() > limit) {
+                inboxAfterId = messageIdList.get(messageIdList.size() - 1);
+                return true;
+            }
+            inboxAfterId = null;
+            return false;
+        }
+
+        private void finish(boolean success) {
+            if (!result.complete(success)) {
+                return;
+            }
+            activeCount.decrement();
+            if (!success) {
+                failCount.increment();
+            }
+        }
+    }
+
+    /**
+     * 发送syncToken之后发给这些联系人的消息
+     *
+     * @return 全部发出后在业务线程完成为true，失败或连接断开为false
+     */
+    public CompletableFuture<Boolean> sync(Channel channel, String userId, List<String> contactIdList, long syncToken) {
+        //不同节点生成的id和提交顺序不完全一致，往前多查一段，客户端按消息id去重
+        long fromId = SnowflakeIdGenerator.minIdOf(SnowflakeIdGenerator.getTimestamp(syncToken) - appConfig.getWsSyncOverlapMs());
+        SyncTask task = new SyncTask(channel, userId, contactIdList, syncToken);
+        UserOfflineInbox.Mark mark = userOfflineInbox.getMark(userId);
+        if (mark != null && !userOfflineInbox.isFull(userId)) {
+            initInbox(task, fromId, mark);
+            return task.start();
+        }
+        long floorId = SnowflakeIdGenerator.minIdOf(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(appConfig.getWsSyncMaxDays()));
+        long afterId = Math.max(fromId, floorId) - 1;
+        Long newestFromId = selectNewestFromId(contactIdList, afterId, null, null);
+        task.truncated = fromId < floorId || newestFromId != null;
+        task.afterMessageId = newestFromId == null ? afterId : newestFromId;
+        return task.start();
+    }
+
+    /**
+     * 发送sendTimeFrom之后发给这些联系人的消息，客户端没有同步位置时使用
+     *
+     * @return 全部发出后完成为true，失败或连接断开为false
+     */
+    public CompletableFuture<Boolean> syncSince(Channel channel, String userId, List<String> contactIdList, Long sendTimeFrom) {
+        SyncTask task = new SyncTask(channel, userId, contactIdList, null);
+        Long newestFromId = selectNewestFromId(contactIdList, null, null, sendTimeFrom);
+        task.truncated = newestFromId != null;
+        task.afterMessageId = newestFromId;
+        task.sendTimeFrom = sendTimeFrom;
+        return task.start();
+    }
+
+    /**
+     * 断线恢复时发送syncToken到toTime之间的消息，服务端发现连接断开之前的推送写进了已经断开的连接
+     *
+     * @return 全部发出后在业务线程完成为true，失败或连接断开为false
+     */
+    public CompletableFuture<Boolean> syncUntil(Channel channel, String userId, List<String> contactIdList, long syncToken, long toTime) {
+        long fromId = SnowflakeIdGenerator.minIdOf(SnowflakeIdGenerator.getTimestamp(syncToken) - appConfig.getWsSyncOverlapMs());
+        long floorId = SnowflakeIdGenerator.minIdOf(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(appConfig.getWsSyncMaxDays()));
+        long afterId = Math.max(fromId, floorId) - 1;
+        long toId = SnowflakeIdGenerator.minIdOf(toTime + appConfig.getWsSyncOverlapMs()) - 1;
+        SyncTask task = new SyncTask(channel, userId, contactIdList, syncToken);
+        Long newestFromId = selectNewestFromId(contactIdList, afterId, toId, null);
+        task.truncated = newestFromId != null;
+        task.afterMessageId = newestFromId == null ? afterId : newestFromId;
+        task.toMessageId = toId;
+        return task.start();
+    }
+
+    /**
+     * 从同步位置到开始离线之后一小段查询数据库，多设备时最后一个连接断开之前其他设备可能早已离线；
+     * 之后的消息只读收件箱。两段合计超过条数上限时只发送最新的消息
+     */
+    private void initInbox(SyncTask task, long fromId, UserOfflineInbox.Mark mark) {
+        inboxSyncCount.increment();
+        int maxMessages = appConfig.getWsSyncMaxMessages();
+        long floorId = SnowflakeIdGenerator.minIdOf(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(appConfig.getWsSyncMaxDays()));
+        long gapFromId = Math.max(fromId, floorId);
+        long gapToId = Math.max(gapFromId, SnowflakeIdGenerator.minIdOf(mark.getOfflineTime() + appConfig.getWsSyncOverlapMs()));
+        task.contactIdSet = new HashSet<>(task.contactIdList);
+        task.truncated = fromId < floorId;
+        task.toMessageId = gapToId - 1;
+        task.inboxAfterId = gapToId - 1;
+        long inboxCount = userOfflineInbox.count(task.userId, task.inboxAfterId);
+        if (inboxCount >= maxMessages) {
+            //收件箱已经够条数上限，数据库这一段不再查询，收件箱从倒数第max-messages条开始
+            task.dbDone = true;
+            task.truncated = task.truncated || gapFromId < gapToId || inboxCount > maxMessages;
+            if (inboxCount > maxMessages) {
+                task.inboxAfterId = userOfflineInbox.idAt(task.userId, task.inboxAfterId, inboxCount - maxMessages - 1);
+            }
+            return;
+        }
+        task.dbDone = gapFromId >= gapToId;
+        task.afterMessageId = gapFromId - 1;
+        if (task.dbDone) {
+            return;
+        }
+        Long newestFromId = selectNewestFromId(task.contactIdList, task.afterMessageId, task.toMessageId, null, maxMessages - (int) inboxCount);
+        if (newestFromId != null) {
+            task.truncated = true;
+            task.afterMessageId = newestFromId;
+        }
+    }
+
+    /**
+     * 消息超过条数上限时最新max-messages条之前的一条消息id，从它之后开始发送；没有超过时返回null
+     */
+    private Long selectNewestFromId(List<String> contactIdList, Long afterMessageId, Long toMessageId, Long sendTimeFrom) {
+        return selectNewestFromId(contactIdList, afterMessageId, toMessageId, sendTimeFrom, appConfig.getWsSyncMaxMessages());
+    }
+
+    private Long selectNewestFromId(List<String> contactIdList, Long afterMessageId, Long toMessageId, Long sendTimeFrom, int limit) {
+        return chatMessageMapper.selectNewestOffsetId(contactIdList, afterMessageId, toMessageId, sendTimeFrom, limit);
+    }
+
+    private ChannelFuture write(Channel channel, List<ChatMessage> messageList, Long syncToken, boolean hasMore, boolean truncated) {
+        WsSyncData syncData = new WsSyncData();
+        syncData.setChatMessageList(messageList);
+        syncData.setSyncToken(syncToken);
+        syncData.setHasMore(hasMore);
+        syncData.setTruncated(truncated);
+
+        MessageSendDto<WsSyncData> messageSendDto = new MessageSendDto<>();
+        messageSendDto.setMessageType(MessageTypeEnum.SYNC.getType());
+        messageSendDto.setExtendData(syncData);
+        frameCount.increment();
+        return channel.writeAndFlush(wsBackPressure.wrap(WsFrameCodec.encode(channel, messageSendDto, true), messageSendDto));
+    }
+
+    public Map<String, Object> getStats() {
+        long syncs = syncCount.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pageSize", appConfig.getWsSyncPageSize());
+        stats.put("syncs", syncs);
+        stats.put("inboxSyncs", inboxSyncCount.sum());
+        stats.put("active", activeCount.sum());
+        stats.put("frames", frameCount.sum());
+        stats.put("messages", messageCount.sum());
+        stats.put("avgMessages", syncs > 0 ? (double) messageCount.sum() / syncs : 0D);
+        stats.put("truncated", truncatedCount.sum());
+        stats.put("writableWaits", waitCount.sum());
+        stats.put("writeTimeouts", timeoutCount.sum());
+        stats.put("failed", failCount.sum());
+        stats.put("inbox", userOfflineInbox.getStats());
+        return stats;
+    }
+}
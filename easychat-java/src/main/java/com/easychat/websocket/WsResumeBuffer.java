@@ -0,0 +1,373 @@
+package com.easychat.websocket;
+
+import com.easychat.entity.config.AppConfig;
+import com.easychat.entity.dto.MessageSendDto;
+import com.easychat.utils.CopyTools;
+import com.easychat.utils.StringTools;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 断线恢复缓冲，连接断开后保留一段时间，期间发给该连接的消息先存在内存中
+ * 客户端在窗口期内带上恢复令牌重连，补发这些消息，不再完整初始化；
+ * 发现连接断开之前的推送写进了已经断开的连接，由调用方从客户端同步位置查询数据库补齐到开始保留为止
+ * 保留期间用户路由不移除，其他节点的消息仍然投递到本节点；过期或消息超过上限后按正常断线处理
+ */
+@Component("wsResumeBuffer")
+public class WsResumeBuffer {
+
+    private static final Logger logger = LoggerFactory.getLogger(WsResumeBuffer.class);
+
+    private static final int TOKEN_LENGTH = 32;
+
+    @Resource
+    private AppConfig appConfig;
+
+    private ScheduledExecutorService executor;
+
+    private final ConcurrentMap<String, ResumeSession> tokenMap = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Set<ResumeSession>> userMap = new ConcurrentHashMap<>();
+
+    /**
+     * eager群发模式下按群查找断开的连接
+     */
+    private final ConcurrentMap<String, Set<ResumeSession>> groupMap = new ConcurrentHashMap<>();
+
+    private final LongAdder openCount = new LongAdder();
+
+    private final LongAdder rejectCount = new LongAdder();
+
+    private final LongAdder resumeCount = new LongAdder();
+
+    private final LongAdder replayCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private final LongAdder overflowCount = new LongAdder();
+
+    private final LongAdder expireCount = new LongAdder();
+
+    /**
+     * 恢复结果
+     */
+    public static final class Replay {
+        private final List<MessageSendDto> frames;
+        //断开的连接最后一次收到客户端数据的时间
+        private final long activeTime;
+        //开始保留消息的时间，和activeTime之间的消息可能写进了已经断开的连接
+        private final long openTime;
+
+        private Replay(List<MessageSendDto> frames, long activeTime, long openTime) {
+            this.frames = frames;
+            this.activeTime = activeTime;
+            this.openTime = openTime;
+        }
+
+        public List<MessageSendDto> getFrames() {
+            return frames;
+        }
+
+        public long getActiveTime() {
+            return activeTime;
+        }
+
+        public long getOpenTime() {
+            return openTime;
+        }
+    }
+
+    private static final class ResumeSession {
+        private final String token;
+        private final String userId;
+        private final Set<String> groups;
+        private final Runnable onExpire;
+        private final long activeTime;
+        private final long openTime = System.currentTimeMillis();
+        private volatile long expireTime;
+        private List<MessageSendDto> frames = new ArrayList<>();
+        private boolean closed;
+        private boolean overflow;
+
+        private ResumeSession(String token, String userId, long activeTime, Set<String> groups, long expireTime, Runnable onExpire) {
+            this.token = token;
+            this.userId = userId;
+            this.activeTime = activeTime;
+            this.groups = groups;
+            this.expireTime = expireTime;
+            this.onExpire = onExpire;
+        }
+
+        private synchronized boolean add(MessageSendDto messageSendDto, int maxFrames) {
+            if (closed || overflow) {
+                return false;
+            }
+            if (frames.size() >= maxFrames) {
+                //超过上限不能恢复，下次检查时按断线处理
+                overflow = true;
+                frames = null;
+                expireTime = 0;
+                return false;
+            }
+            frames.add(messageSendDto);
+            return true;
+        }
+
+        /**
+         * 关闭后不再接收消息，返回保留的消息，不能恢复时返回null
+         */
+        private synchronized List<MessageSendDto> close() {
+            closed = true;
+            return overflow ? null : frames;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        if (appConfig.getWsResumeWindowSeconds() <= 0) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("ws-resume-expire", true));
+        executor.scheduleWithFixedDelay(this::expire, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    public boolean isEnabled() {
+        return executor != null;
+    }
+
+    public String newToken() {
+        return isEnabled() ? StringTools.getRandomString(TOKEN_LENGTH) : null;
+    }
+
+    /**
+     * 连接断开，开始保留发给该连接的消息
+     *
+     * @param activeTime 连接最后一次收到客户端数据的时间
+     * @param groups     连接加入的群，eager群发模式下使用
+     * @param onExpire   过期没有恢复时调用，按正常断线处理
+     * @return 是否保留，没有保留时调用方直接按断线处理
+     */
+    public boolean open(String token, String userId, long activeTime, Set<String> groups, Runnable onExpire) {
+        if (!isEnabled() || token == null) {
+            return false;
+        }
+        if (tokenMap.size() >= appConfig.getWsResumeMaxSessions()) {
+            rejectCount.increment();
+            return false;
+        }
+        Set<String> groupSet = ConcurrentHashMap.newKeySet();
+        groupSet.addAll(groups);
+        long expireTime = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(appConfig.getWsResumeWindowSeconds());
+        ResumeSession session = new ResumeSession(token, userId, activeTime, groupSet, expireTime, onExpire);
+        //先登记到用户和群，再开放令牌，恢复时能找到的都已经在接收消息
+        addTo(userMap, userId, session);
+        for (String groupId : groupSet) {
+            addTo(groupMap, groupId, session);
+        }
+        tokenMap.put(token, session);
+        openCount.increment();
+        return true;
+    }
+
+    /**
+     * 用户是否有等待恢复的连接
+     */
+    public boolean isResumable(String userId) {
+        return !userMap.isEmpty() && userMap.containsKey(userId);
+    }
+
+    /**
+     * 发给用户的消息
+     */
+    public void append(String userId, MessageSendDto messageSendDto) {
+        if (userMap.isEmpty()) {
+            return;
+        }
+        append(userMap.get(userId), messageSendDto, null);
+    }
+
+    /**
+     * 发给群成员的消息，lazy群发模式下使用
+     */
+    public void append(String[] userIds, MessageSendDto messageSendDto) {
+        if (userMap.isEmpty()) {
+            return;
+        }
+        MessageSendDto copy = null;
+        for (String userId : userIds) {
+            copy = append(userMap.get(userId), messageSendDto, copy);
+        }
+    }
+
+    /**
+     * 发到群的消息，eager群发模式下使用
+     */
+    public void appendGroup(String groupId, MessageSendDto messageSendDto) {
+        if (groupMap.isEmpty()) {
+            return;
+        }
+        append(groupMap.get(groupId), messageSendDto, null);
+    }
+
+    /**
+     * 调用方之后还会修改消息，保存副本，同一条消息的多个连接共用一个副本
+     */
+    private MessageSendDto append(Collection<ResumeSession> sessions, MessageSendDto messageSendDto, MessageSendDto copy) {
+        if (sessions == null) {
+            return copy;
+        }
+        for (ResumeSession session : sessions) {
+            if (copy == null) {
+                copy = CopyTools.copy(messageSendDto, MessageSendDto.class);
+            }
+            session.add(copy, appConfig.getWsResumeMaxFrames());
+        }
+        return copy;
+    }
+
+    public void joinGroup(String userId, String groupId) {
+        Set<ResumeSession> sessions = userMap.get(userId);
+        if (sessions == null) {
+            return;
+        }
+        for (ResumeSession session : sessions) {
+            session.groups.add(groupId);
+            addTo(groupMap, groupId, session);
+        }
+    }
+
+    public void leaveGroup(String userId, String groupId) {
+        Set<ResumeSession> sessions = userMap.get(userId);
+        if (sessions == null) {
+            return;
+        }
+        for (ResumeSession session : sessions) {
+            session.groups.remove(groupId);
+            removeFrom(groupMap, groupId, session);
+        }
+    }
+
+    /**
+     * 恢复连接，调用方需要先把新连接加入在线表，两边都收到的消息客户端按消息id覆盖
+     *
+     * @return 需要补发的消息，不能恢复时返回null
+     */
+    public Replay resume(String token, String userId) {
+        ResumeSession session = token == null ? null : tokenMap.get(token);
+        if (session == null || !session.userId.equals(userId)) {
+            missCount.increment();
+            return null;
+        }
+        if (!tokenMap.remove(token, session)) {
+            missCount.increment();
+            return null;
+        }
+        unregister(session);
+        List<MessageSendDto> frames = session.close();
+        if (frames == null) {
+            overflowCount.increment();
+            return null;
+        }
+        resumeCount.increment();
+        replayCount.add(frames.size());
+        return new Replay(frames, session.activeTime, session.openTime);
+    }
+
+    /**
+     * 用户被强制下线或退出登录，等待恢复的连接全部过期
+     */
+    public void expire(String userId) {
+        Set<ResumeSession> sessions = userMap.get(userId);
+        if (sessions == null) {
+            return;
+        }
+        for (ResumeSession session : sessions) {
+            session.expireTime = 0;
+        }
+    }
+
+    private void expire() {
+        long now = System.currentTimeMillis();
+        for (ResumeSession session : tokenMap.values()) {
+            if (session.expireTime > now || !tokenMap.remove(session.token, session)) {
+                continue;
+            }
+            unregister(session);
+            if (session.close() == null) {
+                overflowCount.increment();
+            } else {
+                expireCount.increment();
+            }
+            try {
+                session.onExpire.run();
+            } catch (Exception e) {
+                logger.error("断线恢复过期处理失败,userId:{}", session.userId, e);
+            }
+        }
+    }
+
+    private void unregister(ResumeSession session) {
+        removeFrom(userMap, session.userId, session);
+        for (String groupId : session.groups) {
+            removeFrom(groupMap, groupId, session);
+        }
+    }
+
+    private static void addTo(ConcurrentMap<String, Set<ResumeSession>> map, String key, ResumeSession session) {
+        map.compute(key, (k, sessions) -> {
+            if (sessions == null) {
+                sessions = ConcurrentHashMap.newKeySet();
+            }
+            sessions.add(session);
+            return sessions;
+        });
+    }
+
+    private static void removeFrom(ConcurrentMap<String, Set<ResumeSession>> map, String key, ResumeSession session) {
+        map.computeIfPresent(key, (k, sessions) -> {
+            sessions.remove(session);
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("windowSeconds", appConfig.getWsResumeWindowSeconds());
+        stats.put("maxFrames", appConfig.getWsResumeMaxFrames());
+        stats.put("sessions", tokenMap.size());
+        stats.put("opened", openCount.sum());
+        stats.put("rejected", rejectCount.sum());
+        stats.put("resumed", resumeCount.sum());
+        stats.put("replayedFrames", replayCount.sum());
+        stats.put("missed", missCount.sum());
+        stats.put("overflowed", overflowCount.sum());
+        stats.put("expired", expireCount.sum());
+        return stats;
+    }
+}
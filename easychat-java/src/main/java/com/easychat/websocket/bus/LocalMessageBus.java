@@ -0,0 +1,205 @@
+package com.easychat.websocket.bus;
+
+import com.easychat.entity.config.AppConfig;
+import com.easychat.entity.dto.MessageSendBatchDto;
+import com.easychat.entity.dto.MessageSendDto;
+import com.easychat.utils.CopyTools;
+import org.redisson.api.RedissonClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * 进程内消息通道，单机部署和测试使用，消息不经过redis
+ * 每个分发线程一个无锁队列，按联系人id分配线程，同一联系人的消息按顺序投递；
+ * 队列满时调用线程等待队列空出，等待超时才由调用线程直接投递(此时同一联系人的消息可能乱序)
+ */
+@Component("localMessageBus")
+@ConditionalOnProperty(name = "ws.bus.type", havingValue = "local")
+public class LocalMessageBus implements MessageBus {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalMessageBus.class);
+
+    /**
+     * 队列为空时分发线程最长休眠时间，防止漏掉唤醒
+     */
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * 队列满时调用线程每次等待时间
+     */
+    private static final long OFFER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Resource
+    private AppConfig appConfig;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    private Dispatcher[] dispatchers;
+
+    private Consumer<MessageSendDto> consumer;
+
+    private volatile boolean running;
+
+    private final LongAdder dispatchCount = new LongAdder();
+
+    private final LongAdder offerWaitCount = new LongAdder();
+
+    private final LongAdder callerRunsCount = new LongAdder();
+
+    private final class Dispatcher implements Runnable {
+        private final ConcurrentLinkedQueue<MessageSendDto> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private volatile boolean waiting;
+        private Thread thread;
+
+        private boolean tryOffer(MessageSendDto sendDto) {
+            if (size.incrementAndGet() > appConfig.getWsBusLocalQueueCapacity()) {
+                size.decrementAndGet();
+                return false;
+            }
+            queue.offer(sendDto);
+            if (waiting) {
+                LockSupport.unpark(thread);
+            }
+            return true;
+        }
+
+        /**
+         * 队列满时等待，超时返回false
+         */
+        private boolean offer(MessageSendDto sendDto) {
+            if (tryOffer(sendDto)) {
+                return true;
+            }
+            offerWaitCount.increment();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(appConfig.getWsBusLocalOfferTimeoutMs());
+            while (running && System.nanoTime() < deadline) {
+                LockSupport.parkNanos(this, OFFER_PARK_NANOS);
+                if (tryOffer(sendDto)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                MessageSendDto sendDto = queue.poll();
+                if (sendDto == null) {
+                    //先标记等待再检查队列，和offer中先入队再检查标记配合，不会漏掉唤醒
+                    waiting = true;
+                    if (queue.isEmpty()) {
+                        LockSupport.parkNanos(this, PARK_NANOS);
+                    }
+                    waiting = false;
+                    continue;
+                }
+                size.decrementAndGet();
+                dispatchCount.increment();
+                MessageBusSupport.dispatch(sendDto, consumer);
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(String nodeId, Consumer<MessageSendDto> broadcastConsumer, Consumer<MessageSendDto> nodeConsumer) {
+        consumer = broadcastConsumer;
+        int threads = appConfig.getWsBusLocalThreads() > 0 ? appConfig.getWsBusLocalThreads() : Runtime.getRuntime().availableProcessors();
+        dispatchers = new Dispatcher[threads];
+        running = true;
+        for (int i = 0; i < threads; i++) {
+            Dispatcher dispatcher = new Dispatcher();
+            dispatcher.thread = new Thread(dispatcher, "message-local-dispatcher-" + i);
+            dispatcher.thread.setDaemon(true);
+            dispatcher.thread.start();
+            dispatchers[i] = dispatcher;
+        }
+
+        //压测工具发到message.topic，需要时显式开启，默认单机模式不订阅redis
+        if (appConfig.getWsBusLocalListenTopic()) {
+            redissonClient.getTopic(TopicMessageBus.MESSAGE_TOPIC).addListener(MessageSendDto.class,
+                    (channel, sendDto) -> enqueue(sendDto));
+        }
+        logger.info("进程内消息通道启动,分发线程数:{}", threads);
+    }
+
+    @Override
+    public boolean isClustered() {
+        return false;
+    }
+
+    @Override
+    public void broadcast(MessageSendDto sendDto) {
+        //异步投递，调用方发送后可能继续修改这个对象
+        enqueue(CopyTools.copy(sendDto, MessageSendDto.class));
+    }
+
+    @Override
+    public boolean publish(String nodeId, Object message) {
+        //单机模式没有其他节点，和广播走同一个队列，保证同一联系人的顺序
+        if (message instanceof MessageSendBatchDto) {
+            for (MessageSendDto sendDto : ((MessageSendBatchDto) message).getMessageList()) {
+                broadcast(sendDto);
+            }
+        } else if (message instanceof MessageSendDto) {
+            broadcast((MessageSendDto) message);
+        } else {
+            MessageBusSupport.dispatch(message, consumer);
+        }
+        return true;
+    }
+
+    private void enqueue(MessageSendDto queueDto) {
+        String contactId = queueDto.getContactId();
+        Dispatcher dispatcher = dispatchers[(contactId == null ? 0 : contactId.hashCode() & Integer.MAX_VALUE) % dispatchers.length];
+        if (!dispatcher.offer(queueDto)) {
+            callerRunsCount.increment();
+            logger.warn("进程内消息队列已满，调用线程直接投递,contactId:{}", contactId);
+            MessageBusSupport.dispatch(queueDto, consumer);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (dispatchers == null) {
+            return;
+        }
+        for (Dispatcher dispatcher : dispatchers) {
+            LockSupport.unpark(dispatcher.thread);
+        }
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        int queued = 0;
+        if (dispatchers != null) {
+            for (Dispatcher dispatcher : dispatchers) {
+                queued += dispatcher.size.get();
+            }
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("type", "local");
+        stats.put("threads", dispatchers == null ? 0 : dispatchers.length);
+        stats.put("queued", queued);
+        stats.put("dispatched", dispatchCount.sum());
+        stats.put("offerWaits", offerWaitCount.sum());
+        stats.put("callerRuns", callerRunsCount.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,41 @@
+package com.easychat.websocket.bus;
+
+import com.easychat.entity.dto.MessageSendDto;
+
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * ws 节点间消息通道，由 ws.bus.type 选择实现
+ * topic: redis发布订阅，节点不在线时消息丢失
+ * stream: redis stream + 消费组，节点短暂断开后可以继续消费
+ * local: 进程内队列，只能单机部署
+ */
+public interface MessageBus {
+
+    /**
+     * 开始接收消息
+     *
+     * @param broadcastConsumer 广播消息
+     * @param nodeConsumer      发给本节点的消息
+     */
+    void subscribe(String nodeId, Consumer<MessageSendDto> broadcastConsumer, Consumer<MessageSendDto> nodeConsumer);
+
+    void broadcast(MessageSendDto sendDto);
+
+    /**
+     * 发给指定节点，message为MessageSendDto或MessageSendBatchDto
+     *
+     * @return false 目标节点已经不存在
+     */
+    boolean publish(String nodeId, Object message);
+
+    Map<String, Object> getStats();
+
+    /**
+     * 是否多节点部署，false时不维护用户路由，所有消息直接广播
+     */
+    default boolean isClustered() {
+        return true;
+    }
+}
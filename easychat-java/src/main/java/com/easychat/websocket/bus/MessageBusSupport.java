@@ -0,0 +1,55 @@
+package com.easychat.websocket.bus;
+
+import com.easychat.entity.config.AppConfig;
+import com.easychat.entity.dto.MessageSendBatchDto;
+import com.easychat.entity.dto.MessageSendDto;
+import com.easychat.redis.MessageJsonbCodec;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.Codec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.function.Consumer;
+
+/**
+ * 消息通道实现共用的编码选择和消息分发
+ */
+final class MessageBusSupport {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageBusSupport.class);
+
+    private MessageBusSupport() {
+    }
+
+    /**
+     * 节点消息编码，ws.bus.codec=jsonb 使用 MessageJsonbCodec，否则使用redisson默认编码
+     * 广播topic message.topic 始终使用默认编码，兼容旧版本节点和压测工具
+     */
+    static Codec codec(AppConfig appConfig, RedissonClient redissonClient) {
+        if ("jsonb".equalsIgnoreCase(appConfig.getWsBusCodec())) {
+            return MessageJsonbCodec.INSTANCE;
+        }
+        return redissonClient.getConfig().getCodec();
+    }
+
+    /**
+     * 拆开批量消息逐条处理，单条失败不影响其他消息
+     */
+    static void dispatch(Object message, Consumer<MessageSendDto> consumer) {
+        if (message instanceof MessageSendBatchDto) {
+            for (MessageSendDto sendDto : ((MessageSendBatchDto) message).getMessageList()) {
+                dispatch(sendDto, consumer);
+            }
+            return;
+        }
+        if (!(message instanceof MessageSendDto)) {
+            logger.warn("未知的消息类型:{}", message == null ? null : message.getClass().getName());
+            return;
+        }
+        try {
+            consumer.accept((MessageSendDto) message);
+        } catch (Exception e) {
+            logger.error("处理节点消息失败", e);
+        }
+    }
+}
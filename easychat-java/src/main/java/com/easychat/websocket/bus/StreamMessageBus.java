@@ -0,0 +1,335 @@
+package com.easychat.websocket.bus;
+
+import com.easychat.entity.config.AppConfig;
+import com.easychat.entity.constants.Constants;
+import com.easychat.entity.dto.MessageSendDto;
+import com.easychat.utils.StringTools;
+import org.redisson.api.PendingEntry;
+import org.redisson.api.RStream;
+import org.redisson.api.RedissonClient;
+import org.redisson.api.StreamMessageId;
+import org.redisson.api.stream.StreamAddArgs;
+import org.redisson.api.stream.StreamCreateGroupArgs;
+import org.redisson.api.stream.StreamMultiReadGroupArgs;
+import org.redisson.client.codec.ByteArrayCodec;
+import org.redisson.client.codec.Codec;
+import org.redisson.client.codec.StringCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * redis stream，每个节点一个stream，另有一个广播stream，都用节点id作为消费组
+ * 消息处理完才ack，节点重启(节点id不变)后先处理未ack的消息，再从上次的位置继续消费
+ * 长时间没有ack的消息定期认领重新处理，投递次数超过上限的移入死信stream，不再重复投递
+ * stream按MAXLEN近似裁剪；节点存活标记过期后不再给该节点写入
+ */
+@Component("streamMessageBus")
+@ConditionalOnProperty(name = "ws.bus.type", havingValue = "stream")
+public class StreamMessageBus implements MessageBus {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamMessageBus.class);
+
+    private static final String FIELD_MESSAGE = "m";
+
+    /**
+     * 节点存活检查结果本地缓存时间
+     */
+    private static final long ALIVE_CACHE_MILLIS = 1000;
+
+    /**
+     * 检查未ack消息的间隔
+     */
+    private static final long CLAIM_INTERVAL_MILLIS = 5000;
+
+    /**
+     * 死信消息中记录来源stream和消息id的字段
+     */
+    private static final byte[] FIELD_SOURCE = "source".getBytes(StandardCharsets.UTF_8);
+
+    @Resource
+    private AppConfig appConfig;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    private Codec codec;
+
+    private String nodeId;
+
+    private RStream<String, Object> nodeStream;
+
+    private RStream<String, Object> broadcastStream;
+
+    private volatile boolean running;
+
+    private Thread consumerThread;
+
+    private long aliveRefreshTime;
+
+    private long claimTime;
+
+    private final ConcurrentMap<String, Long> aliveCache = new ConcurrentHashMap<>();
+
+    private final LongAdder publishCount = new LongAdder();
+
+    private final LongAdder readCount = new LongAdder();
+
+    private final LongAdder ackCount = new LongAdder();
+
+    private final LongAdder recoverCount = new LongAdder();
+
+    private final LongAdder deadLetterCount = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        codec = MessageBusSupport.codec(appConfig, redissonClient);
+    }
+
+    @Override
+    public void subscribe(String nodeId, Consumer<MessageSendDto> broadcastConsumer, Consumer<MessageSendDto> nodeConsumer) {
+        this.nodeId = nodeId;
+        if (StringTools.isEmpty(appConfig.getWsNodeId())) {
+            logger.warn("ws.bus.type=stream 时建议配置固定的ws.node-id，否则重启后无法继续消费之前的消息");
+        }
+        nodeStream = redissonClient.getStream(Constants.REDIS_KEY_WS_STREAM_NODE + nodeId, codec);
+        broadcastStream = redissonClient.getStream(Constants.REDIS_KEY_WS_STREAM_BROADCAST, codec);
+        //本节点stream从头消费，广播stream只消费订阅之后的消息
+        createGroup(nodeStream, StreamMessageId.ALL);
+        createGroup(broadcastStream, StreamMessageId.NEWEST);
+        refreshAlive();
+
+        //兼容仍然发到message.topic的旧版本节点和压测工具
+        redissonClient.getTopic(TopicMessageBus.MESSAGE_TOPIC).addListener(MessageSendDto.class,
+                (channel, sendDto) -> MessageBusSupport.dispatch(sendDto, broadcastConsumer));
+
+        running = true;
+        consumerThread = new Thread(() -> consume(broadcastConsumer, nodeConsumer), "message-stream-consumer");
+        consumerThread.setDaemon(true);
+        consumerThread.start();
+        logger.info("stream消息通道启动,节点stream:{}", nodeStream.getName());
+    }
+
+    private void createGroup(RStream<String, Object> stream, StreamMessageId id) {
+        try {
+            stream.createGroup(StreamCreateGroupArgs.name(nodeId).id(id).makeStream());
+        } catch (Exception e) {
+            //BUSYGROUP 消费组已存在，继续上次的位置
+            logger.info("消费组已存在,stream:{},group:{}", stream.getName(), nodeId);
+        }
+    }
+
+    private void consume(Consumer<MessageSendDto> broadcastConsumer, Consumer<MessageSendDto> nodeConsumer) {
+        while (running) {
+            try {
+                refreshAlive();
+                recoverPending(broadcastConsumer, nodeConsumer);
+                StreamMultiReadGroupArgs args = StreamMultiReadGroupArgs.greaterThan(StreamMessageId.NEVER_DELIVERED,
+                                broadcastStream.getName(), StreamMessageId.NEVER_DELIVERED)
+                        .count(appConfig.getWsBusStreamReadCount())
+                        .timeout(Duration.ofMillis(appConfig.getWsBusStreamBlockMs()));
+                Map<String, Map<StreamMessageId, Map<String, Object>>> result = nodeStream.readGroup(nodeId, nodeId, args);
+                for (Map.Entry<String, Map<StreamMessageId, Map<String, Object>>> entry : result.entrySet()) {
+                    boolean broadcast = entry.getKey().equals(broadcastStream.getName());
+                    handle(broadcast ? broadcastStream : nodeStream, entry.getValue(), broadcast ? broadcastConsumer : nodeConsumer);
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                //读取到的消息已经进入待ack列表，由recoverPending重新处理
+                logger.error("读取stream消息失败", e);
+                sleep();
+            }
+        }
+    }
+
+    private int handle(RStream<String, Object> stream, Map<StreamMessageId, Map<String, Object>> entries, Consumer<MessageSendDto> consumer) {
+        if (entries == null || entries.isEmpty()) {
+            return 0;
+        }
+        for (Map<String, Object> fields : entries.values()) {
+            MessageBusSupport.dispatch(fields.get(FIELD_MESSAGE), consumer);
+        }
+        readCount.add(entries.size());
+        ackCount.add(stream.ack(nodeId, entries.keySet().toArray(new StreamMessageId[0])));
+        return entries.size();
+    }
+
+    /**
+     * 处理已投递但没有ack的消息(处理中节点重启、ack失败、无法解码)
+     * 启动时马上处理上次退出前留下的，之后定期处理空闲超过claim-idle-ms的
+     */
+    private void recoverPending(Consumer<MessageSendDto> broadcastConsumer, Consumer<MessageSendDto> nodeConsumer) {
+        long now = System.currentTimeMillis();
+        if (now - claimTime < CLAIM_INTERVAL_MILLIS) {
+            return;
+        }
+        long idleMillis = claimTime == 0 ? 0 : appConfig.getWsBusStreamClaimIdleMs();
+        claimTime = now;
+        recoverPending(nodeStream, nodeConsumer, idleMillis);
+        recoverPending(broadcastStream, broadcastConsumer, idleMillis);
+    }
+
+    private void recoverPending(RStream<String, Object> stream, Consumer<MessageSendDto> consumer, long idleMillis) {
+        int count = appConfig.getWsBusStreamReadCount();
+        StreamMessageId startId = StreamMessageId.MIN;
+        while (running) {
+            List<PendingEntry> entries = stream.listPending(nodeId, startId, StreamMessageId.MAX, idleMillis, TimeUnit.MILLISECONDS, count);
+            for (PendingEntry entry : entries) {
+                StreamMessageId id = entry.getId();
+                //getLastTimeDelivered是投递次数，每次认领加一
+                if (entry.getLastTimeDelivered() >= appConfig.getWsBusStreamMaxDeliveries()) {
+                    deadLetter(stream, id);
+                    continue;
+                }
+                try {
+                    Map<StreamMessageId, Map<String, Object>> claimed = stream.claim(nodeId, nodeId, idleMillis, TimeUnit.MILLISECONDS, id);
+                    if (claimed == null || claimed.isEmpty()) {
+                        //消息已经被裁剪
+                        stream.ack(nodeId, id);
+                        continue;
+                    }
+                    recoverCount.add(handle(stream, claimed, consumer));
+                } catch (Exception e) {
+                    //留在待ack列表，下次认领时投递次数加一
+                    logger.error("重新处理stream消息失败,stream:{},id:{}", stream.getName(), id, e);
+                }
+            }
+            if (entries.size() < count) {
+                return;
+            }
+            StreamMessageId lastId = entries.get(entries.size() - 1).getId();
+            startId = new StreamMessageId(lastId.getId0(), lastId.getId1() + 1);
+        }
+    }
+
+    /**
+     * 按原始字节转存到死信stream后ack，消息无法解码时也能保留
+     */
+    private void deadLetter(RStream<String, Object> stream, StreamMessageId id) {
+        try {
+            RStream<byte[], byte[]> rawStream = redissonClient.getStream(stream.getName(), ByteArrayCodec.INSTANCE);
+            Map<byte[], byte[]> fields = rawStream.range(id, id).get(id);
+            if (fields != null) {
+                Map<byte[], byte[]> deadFields = new LinkedHashMap<>(fields);
+                deadFields.put(FIELD_SOURCE, (stream.getName() + " " + id).getBytes(StandardCharsets.UTF_8));
+                redissonClient.<byte[], byte[]>getStream(Constants.REDIS_KEY_WS_STREAM_DEAD, ByteArrayCodec.INSTANCE)
+                        .add(StreamAddArgs.entries(deadFields).trimNonStrict().maxLen(appConfig.getWsBusStreamMaxLen()).noLimit());
+            }
+            stream.ack(nodeId, id);
+            deadLetterCount.increment();
+            logger.warn("stream消息投递次数超过上限，移入死信,stream:{},id:{}", stream.getName(), id);
+        } catch (Exception e) {
+            logger.error("移入死信失败,stream:{},id:{}", stream.getName(), id, e);
+        }
+    }
+
+    private void refreshAlive() {
+        long now = System.currentTimeMillis();
+        long timeoutSeconds = appConfig.getWsBusStreamNodeTimeoutSeconds();
+        if (now - aliveRefreshTime < timeoutSeconds * 1000 / 3) {
+            return;
+        }
+        aliveRefreshTime = now;
+        redissonClient.getBucket(Constants.REDIS_KEY_WS_NODE_ALIVE + nodeId, StringCodec.INSTANCE).set(String.valueOf(now), timeoutSeconds, TimeUnit.SECONDS);
+        //节点下线后stream一天后过期
+        nodeStream.expire(Constants.REDIS_KEY_EXPIRES_DAY, TimeUnit.SECONDS);
+    }
+
+    private boolean isAlive(String targetNodeId) {
+        long now = System.currentTimeMillis();
+        Long checkTime = aliveCache.get(targetNodeId);
+        if (checkTime != null && now - checkTime < ALIVE_CACHE_MILLIS) {
+            return true;
+        }
+        boolean alive = redissonClient.getBucket(Constants.REDIS_KEY_WS_NODE_ALIVE + targetNodeId, StringCodec.INSTANCE).isExists();
+        if (alive) {
+            aliveCache.put(targetNodeId, now);
+        } else {
+            aliveCache.remove(targetNodeId);
+        }
+        return alive;
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void broadcast(MessageSendDto sendDto) {
+        add(broadcastStream, sendDto);
+    }
+
+    @Override
+    public boolean publish(String targetNodeId, Object message) {
+        if (!isAlive(targetNodeId)) {
+            return false;
+        }
+        RStream<String, Object> stream = targetNodeId.equals(nodeId) ? nodeStream : redissonClient.getStream(Constants.REDIS_KEY_WS_STREAM_NODE + targetNodeId, codec);
+        add(stream, message);
+        return true;
+    }
+
+    private void add(RStream<String, Object> stream, Object message) {
+        stream.add(StreamAddArgs.<String, Object>entry(FIELD_MESSAGE, message).trimNonStrict().maxLen(appConfig.getWsBusStreamMaxLen()).noLimit());
+        publishCount.increment();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (consumerThread != null) {
+            consumerThread.interrupt();
+        }
+        //随机生成的节点id重启后不会再使用，删除广播stream上的消费组
+        if (broadcastStream != null && StringTools.isEmpty(appConfig.getWsNodeId())) {
+            try {
+                broadcastStream.removeGroup(nodeId);
+            } catch (Exception e) {
+                logger.warn("删除消费组失败,group:{}", nodeId);
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("type", "stream");
+        stats.put("codec", codec.getClass().getSimpleName());
+        stats.put("published", publishCount.sum());
+        stats.put("read", readCount.sum());
+        stats.put("acked", ackCount.sum());
+        stats.put("recovered", recoverCount.sum());
+        stats.put("deadLettered", deadLetterCount.sum());
+        if (nodeStream != null) {
+            try {
+                stats.put("nodeStreamLength", nodeStream.size());
+                stats.put("nodePending", nodeStream.getPendingInfo(nodeId).getTotal());
+                stats.put("broadcastPending", broadcastStream.getPendingInfo(nodeId).getTotal());
+            } catch (Exception e) {
+                logger.warn("读取stream信息失败", e);
+            }
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,88 @@
+package com.easychat.websocket.bus;
+
+import com.alibaba.fastjson2.JSON;
+import com.easychat.entity.config.AppConfig;
+import com.easychat.entity.dto.MessageSendBatchDto;
+import com.easychat.entity.dto.MessageSendDto;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.Codec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * redis发布订阅，每个节点一个topic，另有一个广播topic
+ */
+@Component("topicMessageBus")
+@ConditionalOnProperty(name = "ws.bus.type", havingValue = "topic", matchIfMissing = true)
+public class TopicMessageBus implements MessageBus {
+
+    private static final Logger logger = LoggerFactory.getLogger(TopicMessageBus.class);
+
+    public static final String MESSAGE_TOPIC = "message.topic";
+
+    /**
+     * 节点topic前缀，单聊消息只发给接收人所在节点
+     */
+    private static final String NODE_TOPIC_PREFIX = "message.topic.node.";
+
+    @Resource
+    private AppConfig appConfig;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    private Codec codec;
+
+    @PostConstruct
+    public void init() {
+        codec = MessageBusSupport.codec(appConfig, redissonClient);
+    }
+
+    @Override
+    public void subscribe(String nodeId, Consumer<MessageSendDto> broadcastConsumer, Consumer<MessageSendDto> nodeConsumer) {
+        RTopic rTopic = redissonClient.getTopic(MESSAGE_TOPIC);
+        rTopic.addListener(MessageSendDto.class, (MessageSendDto, sendDto) -> {
+            logger.info("收到广播消息:{}", JSON.toJSONString(sendDto));
+            MessageBusSupport.dispatch(sendDto, broadcastConsumer);
+        });
+
+        RTopic nodeTopic = redissonClient.getTopic(NODE_TOPIC_PREFIX + nodeId, codec);
+        nodeTopic.addListener(MessageSendDto.class, (MessageSendDto, sendDto) -> {
+            logger.info("收到路由消息:{}", JSON.toJSONString(sendDto));
+            MessageBusSupport.dispatch(sendDto, nodeConsumer);
+        });
+        nodeTopic.addListener(MessageSendBatchDto.class, (channel, batchDto) -> {
+            logger.info("收到批量路由消息:{}条", batchDto.getMessageList().size());
+            MessageBusSupport.dispatch(batchDto, nodeConsumer);
+        });
+    }
+
+    @Override
+    public void broadcast(MessageSendDto sendDto) {
+        RTopic rTopic = redissonClient.getTopic(MESSAGE_TOPIC);
+        rTopic.publish(sendDto);
+    }
+
+    @Override
+    public boolean publish(String nodeId, Object message) {
+        //没有订阅者说明节点已经不存在
+        return redissonClient.getTopic(NODE_TOPIC_PREFIX + nodeId, codec).publish(message) > 0;
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("type", "topic");
+        stats.put("codec", codec.getClass().getSimpleName());
+        return stats;
+    }
+}
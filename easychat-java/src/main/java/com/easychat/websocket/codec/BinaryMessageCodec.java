@@ -0,0 +1,541 @@
+package com.easychat.websocket.codec;
+
+import com.alibaba.fastjson2.JSON;
+import com.easychat.entity.dto.MessageSendDto;
+import com.easychat.entity.dto.WsInitData;
+import com.easychat.entity.dto.WsSyncData;
+import com.easychat.entity.po.ChatMessage;
+import com.easychat.entity.po.ChatSessionUser;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.util.CharsetUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ws 二进制协议 easychat.bin.v1
+ * <p>
+ * 帧格式: [版本号 1字节][字段位图 varint][按位图顺序出现的字段]
+ * 整数使用 varint 编码，字符串为 varint长度 + utf8字节，null字段不占空间。
+ * extendData 以1字节类型标记开头: 1字符串 2初始化数据(WsInitData) 3其它对象的utf8 json 4增量同步数据(WsSyncData)
+ */
+public class BinaryMessageCodec {
+
+    public static final byte VERSION = 1;
+
+    private static final byte EXTEND_STRING = 1;
+    private static final byte EXTEND_INIT_DATA = 2;
+    private static final byte EXTEND_JSON = 3;
+    private static final byte EXTEND_SYNC_DATA = 4;
+
+    //MessageSendDto 字段位
+    private static final int MSG_MESSAGE_ID = 1;
+    private static final int MSG_SESSION_ID = 1 << 1;
+    private static final int MSG_SEND_USER_ID = 1 << 2;
+    private static final int MSG_SEND_USER_NICK_NAME = 1 << 3;
+    private static final int MSG_CONTACT_ID = 1 << 4;
+    private static final int MSG_CONTACT_NAME = 1 << 5;
+    private static final int MSG_MESSAGE_CONTENT = 1 << 6;
+    private static final int MSG_LAST_MESSAGE = 1 << 7;
+    private static final int MSG_MESSAGE_TYPE = 1 << 8;
+    private static final int MSG_SEND_TIME = 1 << 9;
+    private static final int MSG_CONTACT_TYPE = 1 << 10;
+    private static final int MSG_STATUS = 1 << 11;
+    private static final int MSG_FILE_SIZE = 1 << 12;
+    private static final int MSG_FILE_NAME = 1 << 13;
+    private static final int MSG_FILE_TYPE = 1 << 14;
+    private static final int MSG_MEMBER_COUNT = 1 << 15;
+    private static final int MSG_EXTEND_DATA = 1 << 16;
+    private static final int MSG_SEQ = 1 << 17;
+
+    //ChatSessionUser 字段位
+    private static final int SESSION_USER_ID = 1;
+    private static final int SESSION_CONTACT_ID = 1 << 1;
+    private static final int SESSION_SESSION_ID = 1 << 2;
+    private static final int SESSION_CONTACT_NAME = 1 << 3;
+    private static final int SESSION_LAST_MESSAGE = 1 << 4;
+    private static final int SESSION_LAST_RECEIVE_TIME = 1 << 5;
+    private static final int SESSION_CONTACT_TYPE = 1 << 6;
+    private static final int SESSION_MEMBER_COUNT = 1 << 7;
+
+    //ChatMessage 字段位
+    private static final int CHAT_MESSAGE_ID = 1;
+    private static final int CHAT_SESSION_ID = 1 << 1;
+    private static final int CHAT_MESSAGE_TYPE = 1 << 2;
+    private static final int CHAT_MESSAGE_CONTENT = 1 << 3;
+    private static final int CHAT_SEND_USER_ID = 1 << 4;
+    private static final int CHAT_SEND_USER_NICK_NAME = 1 << 5;
+    private static final int CHAT_SEND_TIME = 1 << 6;
+    private static final int CHAT_CONTACT_ID = 1 << 7;
+    private static final int CHAT_CONTACT_TYPE = 1 << 8;
+    private static final int CHAT_FILE_SIZE = 1 << 9;
+    private static final int CHAT_FILE_NAME = 1 << 10;
+    private static final int CHAT_FILE_TYPE = 1 << 11;
+    private static final int CHAT_STATUS = 1 << 12;
+    private static final int CHAT_SEQ = 1 << 13;
+
+    public static void encode(MessageSendDto messageSendDto, ByteBuf out) {
+        String messageContent = messageSendDto.getMessageContent();
+        //getLastMessage为空时返回messageContent，相同时不重复写
+        String lastMessage = messageSendDto.getLastMessage();
+        if (lastMessage != null && lastMessage.equals(messageContent)) {
+            lastMessage = null;
+        }
+        Object extendData = messageSendDto.getExtendData();
+
+        int mask = 0;
+        mask |= messageSendDto.getMessageId() != null ? MSG_MESSAGE_ID : 0;
+        mask |= messageSendDto.getSessionId() != null ? MSG_SESSION_ID : 0;
+        mask |= messageSendDto.getSendUserId() != null ? MSG_SEND_USER_ID : 0;
+        mask |= messageSendDto.getSendUserNickName() != null ? MSG_SEND_USER_NICK_NAME : 0;
+        mask |= messageSendDto.getContactId() != null ? MSG_CONTACT_ID : 0;
+        mask |= messageSendDto.getContactName() != null ? MSG_CONTACT_NAME : 0;
+        mask |= messageContent != null ? MSG_MESSAGE_CONTENT : 0;
+        mask |= lastMessage != null ? MSG_LAST_MESSAGE : 0;
+        mask |= messageSendDto.getMessageType() != null ? MSG_MESSAGE_TYPE : 0;
+        mask |= messageSendDto.getSendTime() != null ? MSG_SEND_TIME : 0;
+        mask |= messageSendDto.getContactType() != null ? MSG_CONTACT_TYPE : 0;
+        mask |= messageSendDto.getStatus() != null ? MSG_STATUS : 0;
+        mask |= messageSendDto.getFileSize() != null ? MSG_FILE_SIZE : 0;
+        mask |= messageSendDto.getFileName() != null ? MSG_FILE_NAME : 0;
+        mask |= messageSendDto.getFileType() != null ? MSG_FILE_TYPE : 0;
+        mask |= messageSendDto.getMemberCount() != null ? MSG_MEMBER_COUNT : 0;
+        mask |= extendData != null ? MSG_EXTEND_DATA : 0;
+        mask |= messageSendDto.getSeq() != null ? MSG_SEQ : 0;
+
+        out.writeByte(VERSION);
+        writeVarLong(out, mask);
+        if ((mask & MSG_MESSAGE_ID) != 0) {
+            writeVarLong(out, messageSendDto.getMessageId());
+        }
+        if ((mask & MSG_SESSION_ID) != 0) {
+            writeString(out, messageSendDto.getSessionId());
+        }
+        if ((mask & MSG_SEND_USER_ID) != 0) {
+            writeString(out, messageSendDto.getSendUserId());
+        }
+        if ((mask & MSG_SEND_USER_NICK_NAME) != 0) {
+            writeString(out, messageSendDto.getSendUserNickName());
+        }
+        if ((mask & MSG_CONTACT_ID) != 0) {
+            writeString(out, messageSendDto.getContactId());
+        }
+        if ((mask & MSG_CONTACT_NAME) != 0) {
+            writeString(out, messageSendDto.getContactName());
+        }
+        if ((mask & MSG_MESSAGE_CONTENT) != 0) {
+            writeString(out, messageContent);
+        }
+        if ((mask & MSG_LAST_MESSAGE) != 0) {
+            writeString(out, lastMessage);
+        }
+        if ((mask & MSG_MESSAGE_TYPE) != 0) {
+            writeVarLong(out, messageSendDto.getMessageType());
+        }
+        if ((mask & MSG_SEND_TIME) != 0) {
+            writeVarLong(out, messageSendDto.getSendTime());
+        }
+        if ((mask & MSG_CONTACT_TYPE) != 0) {
+            writeVarLong(out, messageSendDto.getContactType());
+        }
+        if ((mask & MSG_STATUS) != 0) {
+            writeVarLong(out, messageSendDto.getStatus());
+        }
+        if ((mask & MSG_FILE_SIZE) != 0) {
+            writeVarLong(out, messageSendDto.getFileSize());
+        }
+        if ((mask & MSG_FILE_NAME) != 0) {
+            writeString(out, messageSendDto.getFileName());
+        }
+        if ((mask & MSG_FILE_TYPE) != 0) {
+            writeVarLong(out, messageSendDto.getFileType());
+        }
+        if ((mask & MSG_MEMBER_COUNT) != 0) {
+            writeVarLong(out, messageSendDto.getMemberCount());
+        }
+        if ((mask & MSG_EXTEND_DATA) != 0) {
+            writeExtendData(out, extendData);
+        }
+        if ((mask & MSG_SEQ) != 0) {
+            writeVarLong(out, messageSendDto.getSeq());
+        }
+    }
+
+    public static MessageSendDto<Object> decode(ByteBuf in) {
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new CorruptedFrameException("不支持的协议版本:" + version);
+        }
+        int mask = (int) readVarLong(in);
+        MessageSendDto<Object> messageSendDto = new MessageSendDto<>();
+        if ((mask & MSG_MESSAGE_ID) != 0) {
+            messageSendDto.setMessageId(readVarLong(in));
+        }
+        if ((mask & MSG_SESSION_ID) != 0) {
+            messageSendDto.setSessionId(readString(in));
+        }
+        if ((mask & MSG_SEND_USER_ID) != 0) {
+            messageSendDto.setSendUserId(readString(in));
+        }
+        if ((mask & MSG_SEND_USER_NICK_NAME) != 0) {
+            messageSendDto.setSendUserNickName(readString(in));
+        }
+        if ((mask & MSG_CONTACT_ID) != 0) {
+            messageSendDto.setContactId(readString(in));
+        }
+        if ((mask & MSG_CONTACT_NAME) != 0) {
+            messageSendDto.setContactName(readString(in));
+        }
+        if ((mask & MSG_MESSAGE_CONTENT) != 0) {
+            messageSendDto.setMessageContent(readString(in));
+        }
+        if ((mask & MSG_LAST_MESSAGE) != 0) {
+            messageSendDto.setLastMessage(readString(in));
+        }
+        if ((mask & MSG_MESSAGE_TYPE) != 0) {
+            messageSendDto.setMessageType((int) readVarLong(in));
+        }
+        if ((mask & MSG_SEND_TIME) != 0) {
+            messageSendDto.setSendTime(readVarLong(in));
+        }
+        if ((mask & MSG_CONTACT_TYPE) != 0) {
+            messageSendDto.setContactType((int) readVarLong(in));
+        }
+        if ((mask & MSG_STATUS) != 0) {
+            messageSendDto.setStatus((int) readVarLong(in));
+        }
+        if ((mask & MSG_FILE_SIZE) != 0) {
+            messageSendDto.setFileSize(readVarLong(in));
+        }
+        if ((mask & MSG_FILE_NAME) != 0) {
+            messageSendDto.setFileName(readString(in));
+        }
+        if ((mask & MSG_FILE_TYPE) != 0) {
+            messageSendDto.setFileType((int) readVarLong(in));
+        }
+        if ((mask & MSG_MEMBER_COUNT) != 0) {
+            messageSendDto.setMemberCount((int) readVarLong(in));
+        }
+        if ((mask & MSG_EXTEND_DATA) != 0) {
+            messageSendDto.setExtendData(readExtendData(in));
+        }
+        if ((mask & MSG_SEQ) != 0) {
+            messageSendDto.setSeq(readVarLong(in));
+        }
+        return messageSendDto;
+    }
+
+    private static void writeExtendData(ByteBuf out, Object extendData) {
+        if (extendData instanceof String) {
+            out.writeByte(EXTEND_STRING);
+            writeString(out, (String) extendData);
+        } else if (extendData instanceof WsInitData) {
+            out.writeByte(EXTEND_INIT_DATA);
+            writeInitData(out, (WsInitData) extendData);
+        } else if (extendData instanceof WsSyncData) {
+            out.writeByte(EXTEND_SYNC_DATA);
+            writeSyncData(out, (WsSyncData) extendData);
+        } else {
+            out.writeByte(EXTEND_JSON);
+            writeString(out, JSON.toJSONString(extendData));
+        }
+    }
+
+    private static Object readExtendData(ByteBuf in) {
+        byte type = in.readByte();
+        switch (type) {
+            case EXTEND_STRING:
+                return readString(in);
+            case EXTEND_INIT_DATA:
+                return readInitData(in);
+            case EXTEND_JSON:
+                return JSON.parse(readString(in));
+            case EXTEND_SYNC_DATA:
+                return readSyncData(in);
+            default:
+                throw new CorruptedFrameException("未知的extendData类型:" + type);
+        }
+    }
+
+    private static void writeInitData(ByteBuf out, WsInitData initData) {
+        //applyCount 写入时+1，0表示null
+        writeVarLong(out, initData.getApplyCount() == null ? 0 : initData.getApplyCount() + 1L);
+        List<ChatSessionUser> sessionList = initData.getChatSessionList();
+        writeVarLong(out, sessionList == null ? 0 : sessionList.size());
+        if (sessionList != null) {
+            for (ChatSessionUser session : sessionList) {
+                writeSessionUser(out, session);
+            }
+        }
+        List<ChatMessage> messageList = initData.getChatMessageList();
+        writeVarLong(out, messageList == null ? 0 : messageList.size());
+        if (messageList != null) {
+            for (ChatMessage chatMessage : messageList) {
+                writeChatMessage(out, chatMessage);
+            }
+        }
+    }
+
+    private static WsInitData readInitData(ByteBuf in) {
+        WsInitData initData = new WsInitData();
+        long applyCount = readVarLong(in);
+        initData.setApplyCount(applyCount == 0 ? null : (int) (applyCount - 1));
+        int sessionCount = (int) readVarLong(in);
+        List<ChatSessionUser> sessionList = new ArrayList<>(sessionCount);
+        for (int i = 0; i < sessionCount; i++) {
+            sessionList.add(readSessionUser(in));
+        }
+        initData.setChatSessionList(sessionList);
+        int messageCount = (int) readVarLong(in);
+        List<ChatMessage> messageList = new ArrayList<>(messageCount);
+        for (int i = 0; i < messageCount; i++) {
+            messageList.add(readChatMessage(in));
+        }
+        initData.setChatMessageList(messageList);
+        return initData;
+    }
+
+    private static void writeSyncData(ByteBuf out, WsSyncData syncData) {
+        //syncToken 写入时+1，0表示null
+        writeVarLong(out, syncData.getSyncToken() == null ? 0 : syncData.getSyncToken() + 1);
+        //低位hasMore 高位truncated
+        int flags = (Boolean.TRUE.equals(syncData.getHasMore()) ? 1 : 0) | (Boolean.TRUE.equals(syncData.getTruncated()) ? 2 : 0);
+        out.writeByte(flags);
+        List<ChatMessage> messageList = syncData.getChatMessageList();
+        writeVarLong(out, messageList == null ? 0 : messageList.size());
+        if (messageList != null) {
+            for (ChatMessage chatMessage : messageList) {
+                writeChatMessage(out, chatMessage);
+            }
+        }
+    }
+
+    private static WsSyncData readSyncData(ByteBuf in) {
+        WsSyncData syncData = new WsSyncData();
+        long syncToken = readVarLong(in);
+        syncData.setSyncToken(syncToken == 0 ? null : syncToken - 1);
+        byte flags = in.readByte();
+        syncData.setHasMore((flags & 1) != 0);
+        syncData.setTruncated((flags & 2) != 0);
+        int messageCount = (int) readVarLong(in);
+        List<ChatMessage> messageList = new ArrayList<>(messageCount);
+        for (int i = 0; i < messageCount; i++) {
+            messageList.add(readChatMessage(in));
+        }
+        syncData.setChatMessageList(messageList);
+        return syncData;
+    }
+
+    private static void writeSessionUser(ByteBuf out, ChatSessionUser session) {
+        int mask = 0;
+        mask |= session.getUserId() != null ? SESSION_USER_ID : 0;
+        mask |= session.getContactId() != null ? SESSION_CONTACT_ID : 0;
+        mask |= session.getSessionId() != null ? SESSION_SESSION_ID : 0;
+        mask |= session.getContactName() != null ? SESSION_CONTACT_NAME : 0;
+        mask |= session.getLastMessage() != null ? SESSION_LAST_MESSAGE : 0;
+        mask |= session.getLastReceiveTime() != null ? SESSION_LAST_RECEIVE_TIME : 0;
+        mask |= session.getContactType() != null ? SESSION_CONTACT_TYPE : 0;
+        mask |= session.getMemberCount() != null ? SESSION_MEMBER_COUNT : 0;
+        writeVarLong(out, mask);
+        if ((mask & SESSION_USER_ID) != 0) {
+            writeString(out, session.getUserId());
+        }
+        if ((mask & SESSION_CONTACT_ID) != 0) {
+            writeString(out, session.getContactId());
+        }
+        if ((mask & SESSION_SESSION_ID) != 0) {
+            writeString(out, session.getSessionId());
+        }
+        if ((mask & SESSION_CONTACT_NAME) != 0) {
+            writeString(out, session.getContactName());
+        }
+        if ((mask & SESSION_LAST_MESSAGE) != 0) {
+            writeString(out, session.getLastMessage());
+        }
+        if ((mask & SESSION_LAST_RECEIVE_TIME) != 0) {
+            writeVarLong(out, session.getLastReceiveTime());
+        }
+        if ((mask & SESSION_CONTACT_TYPE) != 0) {
+            writeVarLong(out, session.getContactType());
+        }
+        if ((mask & SESSION_MEMBER_COUNT) != 0) {
+            writeVarLong(out, session.getMemberCount());
+        }
+    }
+
+    private static ChatSessionUser readSessionUser(ByteBuf in) {
+        int mask = (int) readVarLong(in);
+        ChatSessionUser session = new ChatSessionUser();
+        if ((mask & SESSION_USER_ID) != 0) {
+            session.setUserId(readString(in));
+        }
+        if ((mask & SESSION_CONTACT_ID) != 0) {
+            session.setContactId(readString(in));
+        }
+        if ((mask & SESSION_SESSION_ID) != 0) {
+            session.setSessionId(readString(in));
+        }
+        if ((mask & SESSION_CONTACT_NAME) != 0) {
+            session.setContactName(readString(in));
+        }
+        if ((mask & SESSION_LAST_MESSAGE) != 0) {
+            session.setLastMessage(readString(in));
+        }
+        if ((mask & SESSION_LAST_RECEIVE_TIME) != 0) {
+            session.setLastReceiveTime(readVarLong(in));
+        }
+        if ((mask & SESSION_CONTACT_TYPE) != 0) {
+            session.setContactType((int) readVarLong(in));
+        }
+        if ((mask & SESSION_MEMBER_COUNT) != 0) {
+            session.setMemberCount((int) readVarLong(in));
+        }
+        return session;
+    }
+
+    private static void writeChatMessage(ByteBuf out, ChatMessage chatMessage) {
+        int mask = 0;
+        mask |= chatMessage.getMessageId() != null ? CHAT_MESSAGE_ID : 0;
+        mask |= chatMessage.getSessionId() != null ? CHAT_SESSION_ID : 0;
+        mask |= chatMessage.getMessageType() != null ? CHAT_MESSAGE_TYPE : 0;
+        mask |= chatMessage.getMessageContent() != null ? CHAT_MESSAGE_CONTENT : 0;
+        mask |= chatMessage.getSendUserId() != null ? CHAT_SEND_USER_ID : 0;
+        mask |= chatMessage.getSendUserNickName() != null ? CHAT_SEND_USER_NICK_NAME : 0;
+        mask |= chatMessage.getSendTime() != null ? CHAT_SEND_TIME : 0;
+        mask |= chatMessage.getContactId() != null ? CHAT_CONTACT_ID : 0;
+        mask |= chatMessage.getContactType() != null ? CHAT_CONTACT_TYPE : 0;
+        mask |= chatMessage.getFileSize() != null ? CHAT_FILE_SIZE : 0;
+        mask |= chatMessage.getFileName() != null ? CHAT_FILE_NAME : 0;
+        mask |= chatMessage.getFileType() != null ? CHAT_FILE_TYPE : 0;
+        mask |= chatMessage.getStatus() != null ? CHAT_STATUS : 0;
+        mask |= chatMessage.getSeq() != null ? CHAT_SEQ : 0;
+        writeVarLong(out, mask);
+        if ((mask & CHAT_MESSAGE_ID) != 0) {
+            writeVarLong(out, chatMessage.getMessageId());
+        }
+        if ((mask & CHAT_SESSION_ID) != 0) {
+            writeString(out, chatMessage.getSessionId());
+        }
+        if ((mask & CHAT_MESSAGE_TYPE) != 0) {
+            writeVarLong(out, chatMessage.getMessageType());
+        }
+        if ((mask & CHAT_MESSAGE_CONTENT) != 0) {
+            writeString(out, chatMessage.getMessageContent());
+        }
+        if ((mask & CHAT_SEND_USER_ID) != 0) {
+            writeString(out, chatMessage.getSendUserId());
+        }
+        if ((mask & CHAT_SEND_USER_NICK_NAME) != 0) {
+            writeString(out, chatMessage.getSendUserNickName());
+        }
+        if ((mask & CHAT_SEND_TIME) != 0) {
+            writeVarLong(out, chatMessage.getSendTime());
+        }
+        if ((mask & CHAT_CONTACT_ID) != 0) {
+            writeString(out, chatMessage.getContactId());
+        }
+        if ((mask & CHAT_CONTACT_TYPE) != 0) {
+            writeVarLong(out, chatMessage.getContactType());
+        }
+        if ((mask & CHAT_FILE_SIZE) != 0) {
+            writeVarLong(out, chatMessage.getFileSize());
+        }
+        if ((mask & CHAT_FILE_NAME) != 0) {
+            writeString(out, chatMessage.getFileName());
+        }
+        if ((mask & CHAT_FILE_TYPE) != 0) {
+            writeVarLong(out, chatMessage.getFileType());
+        }
+        if ((mask & CHAT_STATUS) != 0) {
+            writeVarLong(out, chatMessage.getStatus());
+        }
+        if ((mask & CHAT_SEQ) != 0) {
+            writeVarLong(out, chatMessage.getSeq());
+        }
+    }
+
+    private static ChatMessage readChatMessage(ByteBuf in) {
+        int mask = (int) readVarLong(in);
+        ChatMessage chatMessage = new ChatMessage();
+        if ((mask & CHAT_MESSAGE_ID) != 0) {
+            chatMessage.setMessageId(readVarLong(in));
+        }
+        if ((mask & CHAT_SESSION_ID) != 0) {
+            chatMessage.setSessionId(readString(in));
+        }
+        if ((mask & CHAT_MESSAGE_TYPE) != 0) {
+            chatMessage.setMessageType((int) readVarLong(in));
+        }
+        if ((mask & CHAT_MESSAGE_CONTENT) != 0) {
+            chatMessage.setMessageContent(readString(in));
+        }
+        if ((mask & CHAT_SEND_USER_ID) != 0) {
+            chatMessage.setSendUserId(readString(in));
+        }
+        if ((mask & CHAT_SEND_USER_NICK_NAME) != 0) {
+            chatMessage.setSendUserNickName(readString(in));
+        }
+        if ((mask & CHAT_SEND_TIME) != 0) {
+            chatMessage.setSendTime(readVarLong(in));
+        }
+        if ((mask & CHAT_CONTACT_ID) != 0) {
+            chatMessage.setContactId(readString(in));
+        }
+        if ((mask & CHAT_CONTACT_TYPE) != 0) {
+            chatMessage.setContactType((int) readVarLong(in));
+        }
+        if ((mask & CHAT_FILE_SIZE) != 0) {
+            chatMessage.setFileSize(readVarLong(in));
+        }
+        if ((mask & CHAT_FILE_NAME) != 0) {
+            chatMessage.setFileName(readString(in));
+        }
+        if ((mask & CHAT_FILE_TYPE) != 0) {
+            chatMessage.setFileType((int) readVarLong(in));
+        }
+        if ((mask & CHAT_STATUS) != 0) {
+            chatMessage.setStatus((int) readVarLong(in));
+        }
+        if ((mask & CHAT_SEQ) != 0) {
+            chatMessage.setSeq(readVarLong(in));
+        }
+        return chatMessage;
+    }
+
+    /**
+     * 无符号varint，每字节低7位存数据，最高位表示后面还有字节
+     */
+    private static void writeVarLong(ByteBuf out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(ByteBuf in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new CorruptedFrameException("varint过长");
+    }
+
+    private static void writeString(ByteBuf out, String value) {
+        writeVarLong(out, ByteBufUtil.utf8Bytes(value));
+        ByteBufUtil.writeUtf8(out, value);
+    }
+
+    private static String readString(ByteBuf in) {
+        int length = (int) readVarLong(in);
+        String value = in.toString(in.readerIndex(), length, CharsetUtil.UTF_8);
+        in.skipBytes(length);
+        return value;
+    }
+}
@@ -0,0 +1,79 @@
+package com.easychat.websocket.codec;
+
+import com.alibaba.fastjson2.JSONWriter;
+import com.easychat.entity.dto.MessageSendDto;
+import com.easychat.utils.JsonUtils;
+import com.easychat.websocket.ConnectionSession;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+import java.io.IOException;
+
+/**
+ * ws 下行帧编码
+ * 握手时客户端通过 Sec-WebSocket-Protocol 选择 easychat.bin.v1 则使用二进制帧，否则保持json文本帧
+ */
+public class WsFrameCodec {
+
+    /**
+     * 二进制子协议
+     */
+    public static final String SUBPROTOCOL_BINARY = "easychat.bin.v1";
+
+    private static final JSONWriter.Feature[] NO_FEATURES = new JSONWriter.Feature[0];
+
+    public static boolean isBinarySubprotocol(String subprotocol) {
+        return SUBPROTOCOL_BINARY.equals(subprotocol);
+    }
+
+    public static boolean isBinary(Channel channel) {
+        ConnectionSession session = ConnectionSession.get(channel);
+        return session != null && session.isBinary();
+    }
+
+    /**
+     * 按通道协商的协议编码
+     *
+     * @param writeNullValue json格式下是否输出null字段
+     */
+    public static WebSocketFrame encode(Channel channel, MessageSendDto messageSendDto, boolean writeNullValue) {
+        if (isBinary(channel)) {
+            return encodeBinary(channel.alloc(), messageSendDto);
+        }
+        return encodeText(channel.alloc(), messageSendDto, writeNullValue);
+    }
+
+    /**
+     * fastjson2 直接输出utf8字节(线程缓存的缓冲区)，再一次性拷贝到池化的直接内存，
+     * 不再生成中间String，也省去TextWebSocketFrame对String的再次编码
+     */
+    public static WebSocketFrame encodeText(ByteBufAllocator allocator, MessageSendDto messageSendDto, boolean writeNullValue) {
+        try (JSONWriter jsonWriter = JSONWriter.ofUTF8(writeNullValue ? JsonUtils.FEATURES : NO_FEATURES)) {
+            jsonWriter.writeAny(messageSendDto);
+            ByteBuf buf = allocator.directBuffer(jsonWriter.size());
+            try {
+                jsonWriter.flushTo(new ByteBufOutputStream(buf));
+            } catch (IOException | RuntimeException e) {
+                buf.release();
+                throw new IllegalStateException("ws消息编码失败", e);
+            }
+            return new TextWebSocketFrame(buf);
+        }
+    }
+
+    public static WebSocketFrame encodeBinary(ByteBufAllocator allocator, MessageSendDto messageSendDto) {
+        ByteBuf buf = allocator.directBuffer();
+        try {
+            BinaryMessageCodec.encode(messageSendDto, buf);
+        } catch (RuntimeException e) {
+            buf.release();
+            throw e;
+        }
+        return new BinaryWebSocketFrame(buf);
+    }
+}
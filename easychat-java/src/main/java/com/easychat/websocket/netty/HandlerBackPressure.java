@@ -0,0 +1,183 @@
+package com.easychat.websocket.netty;
+
+import com.easychat.entity.enums.WsBackPressurePolicyEnum;
+import com.easychat.websocket.ConnectionSession;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.ChannelPromise;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @Description ws 下行背压处理，只在io线程上执行，无需加锁
+ */
+public class HandlerBackPressure extends ChannelDuplexHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(HandlerBackPressure.class);
+
+    private static final IllegalStateException DROPPED = new IllegalStateException("通道积压，消息已丢弃");
+
+    private static final IllegalStateException COALESCED = new IllegalStateException("通道积压，消息已被新消息替换");
+
+    private final WsBackPressure backPressure;
+
+    private final WsBackPressurePolicyEnum policy;
+
+    private final long maxPendingBytes;
+
+    private final ArrayDeque<PendingWrite> pendingQueue = new ArrayDeque<>();
+
+    private Map<String, PendingWrite> coalesceMap;
+
+    private long pendingBytes;
+
+    private static final class PendingWrite {
+        private OutboundFrame frame;
+        private ChannelPromise promise;
+
+        private PendingWrite(OutboundFrame frame, ChannelPromise promise) {
+            this.frame = frame;
+            this.promise = promise;
+        }
+    }
+
+    HandlerBackPressure(WsBackPressure backPressure, WsBackPressurePolicyEnum policy, long maxPendingBytes) {
+        this.backPressure = backPressure;
+        this.policy = policy;
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!(msg instanceof OutboundFrame)) {
+            ctx.write(msg, promise);
+            return;
+        }
+        OutboundFrame frame = (OutboundFrame) msg;
+        if (policy == WsBackPressurePolicyEnum.DISCONNECT || (pendingQueue.isEmpty() && ctx.channel().isWritable())) {
+            writeFrame(ctx, frame, promise);
+            if (!ctx.channel().isWritable()) {
+                checkPending(ctx);
+            }
+            return;
+        }
+        int size = frame.size();
+        if (policy == WsBackPressurePolicyEnum.DROP && frame.isDroppable()) {
+            backPressure.dropped(size);
+            frame.release();
+            promise.tryFailure(DROPPED);
+            return;
+        }
+        if (frame.getCoalesceKey() != null) {
+            if (coalesceMap == null) {
+                coalesceMap = new HashMap<>();
+            }
+            PendingWrite old = coalesceMap.get(frame.getCoalesceKey());
+            if (old != null) {
+                //原位置替换为最新的消息，保持顺序
+                int oldSize = old.frame.size();
+                backPressure.coalesced(oldSize);
+                backPressure.dequeued(oldSize);
+                pendingBytes -= oldSize;
+                old.frame.release();
+                old.promise.tryFailure(COALESCED);
+                old.frame = frame;
+                old.promise = promise;
+                pendingBytes += size;
+                backPressure.queued(size);
+                checkPending(ctx);
+                return;
+            }
+        }
+        PendingWrite pendingWrite = new PendingWrite(frame, promise);
+        pendingQueue.add(pendingWrite);
+        if (frame.getCoalesceKey() != null) {
+            coalesceMap.put(frame.getCoalesceKey(), pendingWrite);
+        }
+        pendingBytes += size;
+        backPressure.queued(size);
+        checkPending(ctx);
+    }
+
+    private void writeFrame(ChannelHandlerContext ctx, OutboundFrame frame, ChannelPromise promise) {
+        ConnectionSession session = ConnectionSession.get(ctx.channel());
+        if (session != null) {
+            session.onWrite(frame.size());
+        }
+        ctx.write(frame.getFrame(), promise);
+    }
+
+    /**
+     * 通道队列加上netty写缓冲超过阈值则断开
+     */
+    private void checkPending(ChannelHandlerContext ctx) {
+        ChannelOutboundBuffer outboundBuffer = ctx.channel().unsafe().outboundBuffer();
+        long total = pendingBytes + (outboundBuffer == null ? 0 : outboundBuffer.totalPendingWriteBytes());
+        if (total <= maxPendingBytes || !ctx.channel().isActive()) {
+            return;
+        }
+        logger.warn("通道{}消息积压{}字节，超过阈值断开连接", ctx.channel().id(), total);
+        backPressure.disconnected();
+        releasePending();
+        ctx.close();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            drain(ctx);
+        } else {
+            backPressure.unwritable();
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    private void drain(ChannelHandlerContext ctx) {
+        boolean written = false;
+        while (!pendingQueue.isEmpty() && ctx.channel().isWritable()) {
+            PendingWrite pendingWrite = pendingQueue.poll();
+            int size = pendingWrite.frame.size();
+            pendingBytes -= size;
+            backPressure.dequeued(size);
+            if (pendingWrite.frame.getCoalesceKey() != null) {
+                coalesceMap.remove(pendingWrite.frame.getCoalesceKey());
+            }
+            writeFrame(ctx, pendingWrite.frame, pendingWrite.promise);
+            written = true;
+        }
+        if (written) {
+            ctx.flush();
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        releasePending();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        releasePending();
+    }
+
+    private void releasePending() {
+        PendingWrite pendingWrite;
+        while ((pendingWrite = pendingQueue.poll()) != null) {
+            int size = pendingWrite.frame.size();
+            backPressure.dequeued(size);
+            pendingWrite.frame.release();
+            pendingWrite.promise.tryFailure(new ClosedChannelException());
+        }
+        pendingBytes = 0;
+        if (coalesceMap != null) {
+            coalesceMap.clear();
+        }
+    }
+}
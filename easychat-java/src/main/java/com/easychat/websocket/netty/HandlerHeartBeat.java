@@ -1,11 +1,10 @@
 package com.easychat.websocket.netty;
 
+import com.easychat.websocket.ConnectionSession;
 import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
-import io.netty.util.Attribute;
-import io.netty.util.AttributeKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,8 +21,7 @@ public class HandlerHeartBeat extends ChannelDuplexHandler {
         if (evt instanceof IdleStateEvent) {
             IdleStateEvent e = (IdleStateEvent) evt;
             if (e.state() == IdleState.READER_IDLE) {
-                Attribute<String> attribute = ctx.channel().attr(AttributeKey.valueOf(ctx.channel().id().toString()));
-                String userId = attribute.get();
+                String userId = ConnectionSession.getUserId(ctx.channel());
                 logger.info("用户{}没有发送心跳断开连接", userId);
                 ctx.close();
             } else if (e.state() == IdleState.WRITER_IDLE) {
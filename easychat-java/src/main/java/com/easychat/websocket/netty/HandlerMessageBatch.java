@@ -0,0 +1,146 @@
+package com.easychat.websocket.netty;
+
+import com.easychat.entity.enums.MessageTypeEnum;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Description ws 批量下行，窗口内的json消息拼成 {"messageType":14,"extendData":[消息1,消息2...]}
+ * 只在io线程上执行，无需加锁
+ */
+public class HandlerMessageBatch extends ChannelOutboundHandlerAdapter {
+
+    private static final ByteBuf BATCH_PREFIX = constant("{\"messageType\":" + MessageTypeEnum.BATCH.getType() + ",\"extendData\":[");
+
+    private static final ByteBuf BATCH_SEPARATOR = constant(",");
+
+    private static final ByteBuf BATCH_SUFFIX = constant("]}");
+
+    private final WsMessageBatch messageBatch;
+
+    private final long windowMs;
+
+    private final int maxMessages;
+
+    private final int maxBytes;
+
+    private final List<OutboundFrame> pendingFrames = new ArrayList<>();
+
+    private final List<ChannelPromise> pendingPromises = new ArrayList<>();
+
+    private int pendingBytes;
+
+    private ScheduledFuture<?> flushTask;
+
+    HandlerMessageBatch(WsMessageBatch messageBatch, long windowMs, int maxMessages, int maxBytes) {
+        this.messageBatch = messageBatch;
+        this.windowMs = windowMs;
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+    }
+
+    private static ByteBuf constant(String value) {
+        return Unpooled.unreleasableBuffer(Unpooled.directBuffer().writeBytes(value.getBytes(StandardCharsets.UTF_8))).asReadOnly();
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!(msg instanceof OutboundFrame) || !(((OutboundFrame) msg).getFrame() instanceof TextWebSocketFrame)) {
+            //其他帧保持顺序，先把攒着的发出去
+            writeBatch(ctx, false);
+            ctx.write(msg, promise);
+            return;
+        }
+        OutboundFrame frame = (OutboundFrame) msg;
+        pendingFrames.add(frame);
+        pendingPromises.add(promise);
+        pendingBytes += frame.size();
+        if (pendingFrames.size() >= maxMessages || pendingBytes >= maxBytes) {
+            writeBatch(ctx, true);
+            return;
+        }
+        if (flushTask == null) {
+            flushTask = ctx.executor().schedule(() -> writeBatch(ctx, true), windowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void writeBatch(ChannelHandlerContext ctx, boolean flush) {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        if (pendingFrames.isEmpty()) {
+            return;
+        }
+        int size = pendingFrames.size();
+        messageBatch.batched(size);
+        if (size == 1) {
+            ctx.write(pendingFrames.get(0), pendingPromises.get(0));
+        } else {
+            CompositeByteBuf content = ctx.alloc().compositeDirectBuffer(size * 2 + 1);
+            content.addComponent(true, BATCH_PREFIX.duplicate());
+            boolean droppable = true;
+            for (int i = 0; i < size; i++) {
+                OutboundFrame frame = pendingFrames.get(i);
+                if (i > 0) {
+                    content.addComponent(true, BATCH_SEPARATOR.duplicate());
+                }
+                //帧内容的引用转交给合并后的缓冲区
+                content.addComponent(true, frame.getFrame().content());
+                droppable &= frame.isDroppable();
+            }
+            content.addComponent(true, BATCH_SUFFIX.duplicate());
+            List<ChannelPromise> promises = new ArrayList<>(pendingPromises);
+            ChannelPromise batchPromise = ctx.newPromise();
+            batchPromise.addListener(future -> {
+                for (ChannelPromise promise : promises) {
+                    if (future.isSuccess()) {
+                        promise.trySuccess();
+                    } else {
+                        promise.tryFailure(future.cause());
+                    }
+                }
+            });
+            ctx.write(new OutboundFrame(new TextWebSocketFrame(content), droppable, null), batchPromise);
+        }
+        pendingFrames.clear();
+        pendingPromises.clear();
+        pendingBytes = 0;
+        if (flush) {
+            ctx.flush();
+        }
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        writeBatch(ctx, true);
+        ctx.close(promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        for (int i = 0; i < pendingFrames.size(); i++) {
+            pendingFrames.get(i).release();
+            pendingPromises.get(i).tryFailure(new ClosedChannelException());
+        }
+        pendingFrames.clear();
+        pendingPromises.clear();
+        pendingBytes = 0;
+    }
+}
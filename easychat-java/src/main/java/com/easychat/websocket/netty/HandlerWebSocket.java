@@ -4,19 +4,24 @@ import com.easychat.entity.dto.TokenUserInfoDto;
 import com.easychat.redis.RedisComponet;
 import com.easychat.utils.StringTools;
 import com.easychat.websocket.ChannelContextUtils;
+import com.easychat.websocket.ConnectionSession;
+import com.easychat.websocket.UserRouteRegistry;
+import com.easychat.websocket.WsBusinessExecutor;
+import com.easychat.websocket.codec.WsFrameCodec;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
-import io.netty.util.Attribute;
-import io.netty.util.AttributeKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import jakarta.annotation.Resource;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @Description ws 业务处理
@@ -29,7 +34,7 @@ import jakarta.annotation.Resource;
  */
 @ChannelHandler.Sharable
 @Component("handlerWebSocket")
-public class HandlerWebSocket extends SimpleChannelInboundHandler<TextWebSocketFrame> {
+public class HandlerWebSocket extends SimpleChannelInboundHandler<WebSocketFrame> {
 
     private static final Logger logger = LoggerFactory.getLogger(HandlerWebSocket.class);
 
@@ -39,6 +44,15 @@ public class HandlerWebSocket extends SimpleChannelInboundHandler<TextWebSocketF
     @Resource
     private RedisComponet redisComponet;
 
+    @Resource
+    private WsBusinessExecutor wsBusinessExecutor;
+
+    @Resource
+    private WsMessageBatch wsMessageBatch;
+
+    @Resource
+    private UserRouteRegistry userRouteRegistry;
+
     /**
      * 当通道就绪后会调用此方法，通常我们会在这里做一些初始化操作
      *
@@ -60,23 +74,39 @@ public class HandlerWebSocket extends SimpleChannelInboundHandler<TextWebSocketF
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
         logger.info("有连接已经断开。。。");
-        channelContextUtils.removeContext(ctx.channel());
+        Channel channel = ctx.channel();
+        Runnable task = () -> channelContextUtils.removeContext(channel);
+        //清理必须执行，队列满时退回到io线程执行
+        if (!wsBusinessExecutor.execute(channel, task)) {
+            task.run();
+        }
     }
 
     /**
      * 读就绪事件 当有消息可读时会调用此方法，我们可以在这里读取消息并处理。
      *
      * @param ctx
-     * @param textWebSocketFrame
+     * @param webSocketFrame 文本帧或二进制帧(二进制协议客户端)
      * @throws Exception
      */
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, TextWebSocketFrame textWebSocketFrame) throws Exception {
+    protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame webSocketFrame) throws Exception {
         //接收心跳
         Channel channel = ctx.channel();
-        Attribute<String> attribute = channel.attr(AttributeKey.valueOf(channel.id().toString()));
-        String userId = attribute.get();
-        redisComponet.saveUserHeartBeat(userId);
+        ConnectionSession session = ConnectionSession.get(channel);
+        if (session == null) {
+            return;
+        }
+        session.onRead(webSocketFrame.content().readableBytes());
+        String userId = session.getUserId();
+        if (userId == null) {
+            return;
+        }
+        //队列满时丢弃本次心跳，客户端会持续发送
+        wsBusinessExecutor.execute(channel, () -> {
+            redisComponet.saveUserHeartBeat(userId);
+            userRouteRegistry.refresh(userId, session);
+        });
     }
 
 
@@ -85,37 +115,51 @@ public class HandlerWebSocket extends SimpleChannelInboundHandler<TextWebSocketF
     public void userEventTriggered(ChannelHandlerContext ctx, Object evt) {
         if (evt instanceof WebSocketServerProtocolHandler.HandshakeComplete) {
             WebSocketServerProtocolHandler.HandshakeComplete complete = (WebSocketServerProtocolHandler.HandshakeComplete) evt;
-            String url = complete.requestUri();
-            String token = getToken(url);
-            if (token == null) {
+            Map<String, List<String>> params = new QueryStringDecoder(complete.requestUri()).parameters();
+            String token = getParam(params, "token");
+            if (StringTools.isEmpty(token)) {
                 ctx.channel().close();
                 return;
             }
-            TokenUserInfoDto tokenUserInfoDto = redisComponet.getTokenUserInfoDto(token);
-            if (null == tokenUserInfoDto) {
-                ctx.channel().close();
-                return;
+            Channel channel = ctx.channel();
+            boolean binary = WsFrameCodec.isBinarySubprotocol(complete.selectedSubprotocol());
+            ConnectionSession session = ConnectionSession.create(channel, getParam(params, "deviceId"), binary);
+            String syncToken = getParam(params, "syncToken");
+            if (StringTools.isNumber(syncToken) && syncToken.length() <= 18) {
+                session.setSyncToken(Long.parseLong(syncToken));
+            }
+            String resumeToken = getParam(params, "resumeToken");
+            if (!StringTools.isEmpty(resumeToken) && resumeToken.length() <= 64) {
+                session.setResumeFrom(resumeToken);
+            }
+            //json客户端可选择接收批量消息
+            if (!binary && "1".equals(getParam(params, "batch"))) {
+                ctx.pipeline().addBefore(ctx.name(), null, wsMessageBatch.newHandler());
+            }
+            if (!wsBusinessExecutor.execute(channel, () -> initContext(channel, token))) {
+                logger.warn("ws业务队列已满，拒绝新连接");
+                channel.close();
             }
-            /**
-             * 用户加入
-             */
-            channelContextUtils.addContext(tokenUserInfoDto.getUserId(), ctx.channel());
-
         }
     }
 
-    private String getToken(String url) {
-        if (StringTools.isEmpty(url) || url.indexOf("?") == -1) {
-            return null;
-        }
-        String[] queryParams = url.split("\\?");
-        if (queryParams.length < 2) {
-            return url;
-        }
-        String[] params = queryParams[1].split("=");
-        if (params.length != 2) {
-            return url;
+    /**
+     * 校验token并加入通道，在业务线程中执行
+     */
+    private void initContext(Channel channel, String token) {
+        TokenUserInfoDto tokenUserInfoDto = redisComponet.getTokenUserInfoDto(token);
+        if (null == tokenUserInfoDto) {
+            channel.close();
+            return;
         }
-        return params[1];
+        /**
+         * 用户加入
+         */
+        channelContextUtils.addContext(tokenUserInfoDto.getUserId(), channel);
+    }
+
+    private String getParam(Map<String, List<String>> params, String name) {
+        List<String> values = params.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
     }
-}
\ No newline at end of file
+}
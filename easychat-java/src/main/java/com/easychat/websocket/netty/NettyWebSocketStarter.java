@@ -1,13 +1,28 @@
 package com.easychat.websocket.netty;
 
 import com.easychat.entity.config.AppConfig;
+import com.easychat.websocket.codec.WsFrameCodec;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.compression.ZlibCodecFactory;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionData;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilter;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilterProvider;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandler;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandshaker;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateServerExtensionHandshaker;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.timeout.IdleStateHandler;
@@ -17,6 +32,10 @@ import org.springframework.stereotype.Component;
 
 import jakarta.annotation.PreDestroy;
 import jakarta.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -30,70 +49,181 @@ public class NettyWebSocketStarter implements Runnable {
 
     private static final Logger logger = LoggerFactory.getLogger(NettyWebSocketStarter.class);
 
+    private static final String TRANSPORT_EPOLL = "epoll";
+
+    private static final String TRANSPORT_NIO = "nio";
+
+    private static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+    private static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+
     @Resource
     private AppConfig appConfig;
 
     @Resource
     private HandlerWebSocket handlerWebSocket;
 
+    @Resource
+    private WsCompressionStats wsCompressionStats;
+
+    @Resource
+    private WsBackPressure wsBackPressure;
+
     /**
      * boss线程组，用于处理连接
      */
-    private EventLoopGroup bossGroup = new NioEventLoopGroup(1);
+    private EventLoopGroup bossGroup;
     /**
      * work线程组，用于处理消息
      */
-    private EventLoopGroup workerGroup = new NioEventLoopGroup();
+    private EventLoopGroup workerGroup;
 
     /**
      * 资源关闭——在容器销毁时关闭
      */
     @PreDestroy
     public void close() {
-        bossGroup.shutdownGracefully();
-        workerGroup.shutdownGracefully();
+        shutdown();
+    }
+
+    private void shutdown() {
+        if (bossGroup != null) {
+            bossGroup.shutdownGracefully();
+        }
+        if (workerGroup != null) {
+            workerGroup.shutdownGracefully();
+        }
+    }
+
+    /**
+     * 选择传输方式，epoll只在linux且native库加载成功时可用，否则回退到nio
+     */
+    private boolean useEpoll() {
+        String transport = appConfig.getWsTransport();
+        if (TRANSPORT_NIO.equalsIgnoreCase(transport)) {
+            return false;
+        }
+        if (Epoll.isAvailable()) {
+            return true;
+        }
+        if (TRANSPORT_EPOLL.equalsIgnoreCase(transport)) {
+            logger.warn("epoll不可用，回退到nio", Epoll.unavailabilityCause());
+        }
+        return false;
+    }
+
+    /**
+     * permessage-deflate 握手配置，小于阈值的帧跳过压缩
+     */
+    private WebSocketServerExtensionHandshaker deflateHandshaker() {
+        int minSize = Math.max(0, appConfig.getWsCompressionMinSize());
+        wsCompressionStats.setMinSize(minSize);
+        WebSocketExtensionFilterProvider filterProvider = new WebSocketExtensionFilterProvider() {
+            @Override
+            public WebSocketExtensionFilter encoderFilter() {
+                return frame -> frame.content().readableBytes() < minSize;
+            }
+
+            @Override
+            public WebSocketExtensionFilter decoderFilter() {
+                return WebSocketExtensionFilter.NEVER_SKIP;
+            }
+        };
+        boolean noContext = appConfig.getWsCompressionNoContextTakeover();
+        PerMessageDeflateServerExtensionHandshaker handshaker = new PerMessageDeflateServerExtensionHandshaker(appConfig.getWsCompressionLevel(),
+                ZlibCodecFactory.isSupportingWindowSizeAndMemLevel(), 15, true, noContext, filterProvider);
+        if (!noContext) {
+            return handshaker;
+        }
+        //浏览器不会主动要求server_no_context_takeover，握手时补上，服务端每条消息重置压缩上下文，连接空闲时不占deflater内存
+        return new WebSocketServerExtensionHandshaker() {
+            @Override
+            public WebSocketServerExtension handshakeExtension(WebSocketExtensionData extensionData) {
+                if (!PERMESSAGE_DEFLATE.equals(extensionData.name())) {
+                    return handshaker.handshakeExtension(extensionData);
+                }
+                Map<String, String> parameters = new HashMap<>(extensionData.parameters());
+                parameters.put(SERVER_NO_CONTEXT_TAKEOVER, null);
+                return handshaker.handshakeExtension(new WebSocketExtensionData(extensionData.name(), parameters));
+            }
+        };
     }
 
     @Override
     public void run() {
+        boolean epoll = useEpoll();
+        //nio下没有SO_REUSEPORT，多个acceptor无意义
+        int acceptorThreads = epoll ? Math.max(1, appConfig.getWsAcceptorThreads()) : 1;
+        int workerThreads = Math.max(0, appConfig.getWsWorkerThreads());
+        Class<? extends ServerSocketChannel> channelClass;
+        if (epoll) {
+            bossGroup = new EpollEventLoopGroup(acceptorThreads);
+            workerGroup = new EpollEventLoopGroup(workerThreads);
+            channelClass = EpollServerSocketChannel.class;
+        } else {
+            bossGroup = new NioEventLoopGroup(acceptorThreads);
+            workerGroup = new NioEventLoopGroup(workerThreads);
+            channelClass = NioServerSocketChannel.class;
+        }
+        WebSocketServerExtensionHandshaker deflateHandshaker = appConfig.getWsCompressionEnabled() ? deflateHandshaker() : null;
         try {
             //创建服务端启动助手
             ServerBootstrap serverBootstrap = new ServerBootstrap();
             serverBootstrap.group(bossGroup, workerGroup);
-            serverBootstrap.channel(NioServerSocketChannel.class)
+            if (acceptorThreads > 1) {
+                //多个监听socket绑定同一端口，由内核分发新连接，避免单个accept队列争用
+                serverBootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+            }
+            serverBootstrap.channel(channelClass)
+                    .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, wsBackPressure.writeBufferWaterMark())
                     .handler(new LoggingHandler(LogLevel.DEBUG))
                     .childHandler(new ChannelInitializer<Channel>() {
                         @Override
                         protected void initChannel(Channel channel) {
                             ChannelPipeline pipeline = channel.pipeline();
+                            //合并flush，同一轮事件循环内多次writeAndFlush只触发一次系统调用
+                            if (appConfig.getWsFlushConsolidateAfter() > 0) {
+                                pipeline.addLast(new FlushConsolidationHandler(appConfig.getWsFlushConsolidateAfter(), true));
+                            }
                             //设置几个重要的处理器
                             // 对http协议的支持，使用http的编码器，解码器
                             pipeline.addLast(new HttpServerCodec());
                             //聚合解码 httpRequest/htppContent/lastHttpContent到fullHttpRequest
                             //保证接收的http请求的完整性
                             pipeline.addLast(new HttpObjectAggregator(64 * 1024));
+                            if (deflateHandshaker != null) {
+                                //压缩扩展协商成功后编解码器插在扩展处理器之后，前后各统计一次字节数
+                                pipeline.addLast(wsCompressionStats.wireHandler());
+                                pipeline.addLast(new WebSocketServerExtensionHandler(deflateHandshaker));
+                                pipeline.addLast(wsCompressionStats.rawHandler());
+                            }
                             //心跳 long readerIdleTime, long writerIdleTime, long allIdleTime, TimeUnit unit
                             // readerIdleTime  读超时事件 即测试段一定事件内未接收到被测试段消息
                             // writerIdleTime  为写超时时间 即测试端一定时间内想被测试端发送消息
                             //allIdleTime  所有类型的超时时间
                             pipeline.addLast(new IdleStateHandler(60, 0, 0, TimeUnit.SECONDS));
                             pipeline.addLast(new HandlerHeartBeat());
-                            //将http协议升级为ws协议，对websocket支持
-                            pipeline.addLast(new WebSocketServerProtocolHandler("/ws", null, true, 64 * 1024, true, true, 10000L));
+                            //将http协议升级为ws协议，对websocket支持，客户端可协商二进制子协议
+                            pipeline.addLast(new WebSocketServerProtocolHandler("/ws", WsFrameCodec.SUBPROTOCOL_BINARY, true, 64 * 1024, true, true, 10000L));
+                            //慢消费者背压，业务消息写出前先经过这里
+                            pipeline.addLast(wsBackPressure.newHandler());
                             pipeline.addLast(handlerWebSocket);
                         }
                     });
-            //启动
-            ChannelFuture channelFuture = serverBootstrap.bind(appConfig.getWsPort()).sync();
-            logger.info("Netty服务端启动成功,端口:{}", appConfig.getWsPort());
-            channelFuture.channel().closeFuture().sync();
+            //启动，每次bind都会从boss线程组中取一个线程负责accept
+            List<Channel> serverChannels = new ArrayList<>();
+            for (int i = 0; i < acceptorThreads; i++) {
+                serverChannels.add(serverBootstrap.bind(appConfig.getWsPort()).sync().channel());
+            }
+            logger.info("Netty服务端启动成功,端口:{},传输方式:{},acceptor线程数:{},压缩:{}", appConfig.getWsPort(), epoll ? TRANSPORT_EPOLL : TRANSPORT_NIO,
+                    acceptorThreads, deflateHandshaker != null);
+            for (Channel serverChannel : serverChannels) {
+                serverChannel.closeFuture().sync();
+            }
         } catch (Exception e) {
-            e.printStackTrace();
-            bossGroup.shutdownGracefully();
-            workerGroup.shutdownGracefully();
+            logger.error("Netty服务端启动失败", e);
         } finally {
-            bossGroup.shutdownGracefully();
-            workerGroup.shutdownGracefully();
+            shutdown();
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,84 @@
+package com.easychat.websocket.netty;
+
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.ReferenceCounted;
+
+/**
+ * 业务下行帧，附带背压处理需要的信息，由 HandlerBackPressure 拆包后继续写出
+ * 引用计数委托给内部的帧，通道关闭后被netty释放时不会泄漏
+ */
+public final class OutboundFrame implements ReferenceCounted {
+
+    private final WebSocketFrame frame;
+
+    /**
+     * 通道积压时可以丢弃
+     */
+    private final boolean droppable;
+
+    /**
+     * 合并key，不为空时队列中相同key的旧消息会被新消息替换
+     */
+    private final String coalesceKey;
+
+    OutboundFrame(WebSocketFrame frame, boolean droppable, String coalesceKey) {
+        this.frame = frame;
+        this.droppable = droppable;
+        this.coalesceKey = coalesceKey;
+    }
+
+    public WebSocketFrame getFrame() {
+        return frame;
+    }
+
+    public boolean isDroppable() {
+        return droppable;
+    }
+
+    public String getCoalesceKey() {
+        return coalesceKey;
+    }
+
+    public int size() {
+        return frame.content().readableBytes();
+    }
+
+    @Override
+    public int refCnt() {
+        return frame.refCnt();
+    }
+
+    @Override
+    public OutboundFrame retain() {
+        frame.retain();
+        return this;
+    }
+
+    @Override
+    public OutboundFrame retain(int increment) {
+        frame.retain(increment);
+        return this;
+    }
+
+    @Override
+    public OutboundFrame touch() {
+        frame.touch();
+        return this;
+    }
+
+    @Override
+    public OutboundFrame touch(Object hint) {
+        frame.touch(hint);
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return frame.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return frame.release(decrement);
+    }
+}
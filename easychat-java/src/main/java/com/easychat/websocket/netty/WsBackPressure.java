@@ -0,0 +1,133 @@
+package com.easychat.websocket.netty;
+
+import com.easychat.entity.config.AppConfig;
+import com.easychat.entity.dto.MessageSendDto;
+import com.easychat.entity.enums.WsBackPressurePolicyEnum;
+import com.easychat.utils.StringTools;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ws 慢消费者背压
+ * 通道写缓冲超过高水位后变为不可写，按配置的策略暂存、合并、丢弃消息或断开连接，
+ * 避免网络差的客户端无限占用堆外内存
+ */
+@Component("wsBackPressure")
+public class WsBackPressure {
+
+    private static final Logger logger = LoggerFactory.getLogger(WsBackPressure.class);
+
+    @Resource
+    private AppConfig appConfig;
+
+    private WsBackPressurePolicyEnum policy;
+
+    private final Set<Integer> droppableTypes = new HashSet<>();
+
+    private final LongAdder unwritableCount = new LongAdder();
+    private final LongAdder queuedFrames = new LongAdder();
+    private final LongAdder queuedBytes = new LongAdder();
+    private final LongAdder pendingBytes = new LongAdder();
+    private final LongAdder coalescedFrames = new LongAdder();
+    private final LongAdder coalescedBytes = new LongAdder();
+    private final LongAdder droppedFrames = new LongAdder();
+    private final LongAdder droppedBytes = new LongAdder();
+    private final LongAdder disconnectCount = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        policy = WsBackPressurePolicyEnum.getByPolicy(appConfig.getWsBackPressurePolicy());
+        if (policy == null) {
+            logger.warn("未知的ws背压策略:{}，使用drop", appConfig.getWsBackPressurePolicy());
+            policy = WsBackPressurePolicyEnum.DROP;
+        }
+        if (!StringTools.isEmpty(appConfig.getWsBackPressureDroppableTypes())) {
+            for (String type : appConfig.getWsBackPressureDroppableTypes().split(",")) {
+                if (!StringTools.isEmpty(type.trim())) {
+                    droppableTypes.add(Integer.parseInt(type.trim()));
+                }
+            }
+        }
+    }
+
+    public WriteBufferWaterMark writeBufferWaterMark() {
+        return new WriteBufferWaterMark(appConfig.getWsWriteBufferLowWaterMark(), appConfig.getWsWriteBufferHighWaterMark());
+    }
+
+    /**
+     * 每个通道一个实例
+     */
+    public ChannelHandler newHandler() {
+        return new HandlerBackPressure(this, policy, appConfig.getWsBackPressureMaxPendingBytes());
+    }
+
+    /**
+     * 包装业务消息帧，带上是否可丢弃、合并key
+     */
+    public OutboundFrame wrap(WebSocketFrame frame, MessageSendDto messageSendDto) {
+        boolean droppable = droppableTypes.contains(messageSendDto.getMessageType());
+        String coalesceKey = null;
+        if (droppable && policy == WsBackPressurePolicyEnum.COALESCE) {
+            coalesceKey = messageSendDto.getMessageType() + "_" + messageSendDto.getContactId();
+        }
+        return new OutboundFrame(frame, droppable, coalesceKey);
+    }
+
+    void unwritable() {
+        unwritableCount.increment();
+    }
+
+    void queued(int size) {
+        queuedFrames.increment();
+        queuedBytes.add(size);
+        pendingBytes.add(size);
+    }
+
+    void dequeued(int size) {
+        pendingBytes.add(-size);
+    }
+
+    void coalesced(int size) {
+        coalescedFrames.increment();
+        coalescedBytes.add(size);
+    }
+
+    void dropped(int size) {
+        droppedFrames.increment();
+        droppedBytes.add(size);
+    }
+
+    void disconnected() {
+        disconnectCount.increment();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("policy", policy.getPolicy());
+        stats.put("lowWaterMark", appConfig.getWsWriteBufferLowWaterMark());
+        stats.put("highWaterMark", appConfig.getWsWriteBufferHighWaterMark());
+        stats.put("maxPendingBytes", appConfig.getWsBackPressureMaxPendingBytes());
+        stats.put("unwritable", unwritableCount.sum());
+        stats.put("queuedFrames", queuedFrames.sum());
+        stats.put("queuedBytes", queuedBytes.sum());
+        stats.put("pendingBytes", pendingBytes.sum());
+        stats.put("coalescedFrames", coalescedFrames.sum());
+        stats.put("coalescedBytes", coalescedBytes.sum());
+        stats.put("droppedFrames", droppedFrames.sum());
+        stats.put("droppedBytes", droppedBytes.sum());
+        stats.put("disconnects", disconnectCount.sum());
+        return stats;
+    }
+}
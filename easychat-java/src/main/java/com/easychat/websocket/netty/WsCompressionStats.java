@@ -0,0 +1,121 @@
+package com.easychat.websocket.netty;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtension;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ws 压缩统计
+ * 在permessage-deflate编码器前后各放一个处理器，分别统计压缩前和实际发送的数据帧字节数，
+ * 用来衡量节省的带宽和压缩消耗的cpu
+ */
+@Component("wsCompressionStats")
+public class WsCompressionStats {
+
+    private final LongAdder rawFrames = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder wireBytes = new LongAdder();
+    private final LongAdder compressedFrames = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    /**
+     * 超过阈值的帧在编码器链路上的耗时(包含压缩)
+     */
+    private final LongAdder candidateNanos = new LongAdder();
+
+    private volatile int minSize;
+
+    private final RawStatsHandler rawHandler = new RawStatsHandler();
+
+    private final WireStatsHandler wireHandler = new WireStatsHandler();
+
+    public void setMinSize(int minSize) {
+        this.minSize = minSize;
+    }
+
+    /**
+     * 放在压缩扩展处理器之后(靠近业务handler)，统计压缩前字节数
+     */
+    public ChannelHandler rawHandler() {
+        return rawHandler;
+    }
+
+    /**
+     * 放在压缩扩展处理器之前(靠近socket)，统计压缩后字节数
+     */
+    public ChannelHandler wireHandler() {
+        return wireHandler;
+    }
+
+    private static boolean isDataFrame(Object msg) {
+        return msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame || msg instanceof ContinuationWebSocketFrame;
+    }
+
+    public Map<String, Object> getStats() {
+        long raw = rawBytes.sum();
+        long wire = wireBytes.sum();
+        long compressed = compressedBytes.sum();
+        //未压缩的帧前后大小一致，差值即为参与压缩的原始字节数
+        long compressedInput = raw - (wire - compressed);
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("minSize", minSize);
+        stats.put("frames", rawFrames.sum());
+        stats.put("rawBytes", raw);
+        stats.put("wireBytes", wire);
+        stats.put("savedBytes", raw - wire);
+        stats.put("compressedFrames", compressedFrames.sum());
+        stats.put("compressedInputBytes", compressedInput);
+        stats.put("compressedOutputBytes", compressed);
+        stats.put("compressionRatio", compressedInput > 0 ? (double) compressed / compressedInput : 1D);
+        stats.put("candidateEncodeNanos", candidateNanos.sum());
+        return stats;
+    }
+
+    @ChannelHandler.Sharable
+    private class RawStatsHandler extends ChannelOutboundHandlerAdapter {
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (!isDataFrame(msg)) {
+                ctx.write(msg, promise);
+                return;
+            }
+            int size = ((WebSocketFrame) msg).content().readableBytes();
+            rawFrames.increment();
+            rawBytes.add(size);
+            if (size < minSize) {
+                ctx.write(msg, promise);
+                return;
+            }
+            long start = System.nanoTime();
+            ctx.write(msg, promise);
+            candidateNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    @ChannelHandler.Sharable
+    private class WireStatsHandler extends ChannelOutboundHandlerAdapter {
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (isDataFrame(msg)) {
+                WebSocketFrame frame = (WebSocketFrame) msg;
+                int size = frame.content().readableBytes();
+                wireBytes.add(size);
+                if ((frame.rsv() & WebSocketExtension.RSV1) != 0) {
+                    compressedFrames.increment();
+                    compressedBytes.add(size);
+                }
+            }
+            ctx.write(msg, promise);
+        }
+    }
+}
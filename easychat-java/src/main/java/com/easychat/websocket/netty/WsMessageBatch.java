@@ -0,0 +1,56 @@
+package com.easychat.websocket.netty;
+
+import com.easychat.entity.config.AppConfig;
+import io.netty.channel.ChannelHandler;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ws 批量下行
+ * 握手时带 batch=1 的json客户端，同一通道短时间内的多条消息合并成一个BATCH帧发送，
+ * 直接拼接已编码的json，不重新序列化
+ */
+@Component("wsMessageBatch")
+public class WsMessageBatch {
+
+    @Resource
+    private AppConfig appConfig;
+
+    private final LongAdder batchCount = new LongAdder();
+
+    private final LongAdder batchedMessages = new LongAdder();
+
+    private final LongAdder singleCount = new LongAdder();
+
+    /**
+     * 每个通道一个实例，握手完成后按需加入
+     */
+    public ChannelHandler newHandler() {
+        return new HandlerMessageBatch(this, appConfig.getWsBatchWindowMs(), appConfig.getWsBatchMaxMessages(), appConfig.getWsBatchMaxBytes());
+    }
+
+    void batched(int messages) {
+        if (messages == 1) {
+            singleCount.increment();
+            return;
+        }
+        batchCount.increment();
+        batchedMessages.add(messages);
+    }
+
+    public Map<String, Object> getStats() {
+        long batches = batchCount.sum();
+        long messages = batchedMessages.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("windowMs", appConfig.getWsBatchWindowMs());
+        stats.put("batches", batches);
+        stats.put("batchedMessages", messages);
+        stats.put("avgBatchSize", batches > 0 ? (double) messages / batches : 0D);
+        stats.put("singles", singleCount.sum());
+        return stats;
+    }
+}
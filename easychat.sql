@@ -52,8 +52,10 @@ CREATE TABLE `chat_message`  (
   `file_name` varchar(200) CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci NULL DEFAULT NULL COMMENT '文件名',
   `file_type` tinyint(1) NULL DEFAULT NULL COMMENT '文件类型',
   `status` tinyint(1) NULL DEFAULT 1 COMMENT '状态 0:正在发送 1:已发送',
+  `seq` bigint(20) NULL DEFAULT NULL COMMENT '会话内消息序号',
   PRIMARY KEY (`message_id`) USING BTREE,
   INDEX `idx_session_id`(`session_id`) USING BTREE,
+  INDEX `idx_session_seq`(`session_id`, `seq`) USING BTREE,
   INDEX `idx_send_user_id`(`send_user_id`) USING BTREE,
   INDEX `idx_receive_contact_id`(`contact_id`) USING BTREE,
   INDEX `idx_send_time`(`send_time`) USING BTREE